@@ -0,0 +1,252 @@
+package Team4450.Lib.Benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+import com.ctre.phoenix6.hardware.TalonFX;
+
+import Team4450.Lib.FXEncoder;
+import Team4450.Lib.FunctionTracer;
+import Team4450.Lib.LogFormatter;
+import Team4450.Lib.NavX;
+import Team4450.Lib.SRXMagneticEncoderRelative;
+import Team4450.Lib.SynchronousPID;
+import Team4450.Lib.Util;
+import Team4450.Lib.WpiJoyStick;
+import Team4450.Lib.XboxController;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+
+/**
+ * Measures the bytes allocated per call by the library's per tick methods and
+ * compares them to a baseline file, so a change that adds allocation (and so GC
+ * pressure) to a hot path fails the build. Run by the allocationCheck Gradle task,
+ * which is part of check.
+ * <p>
+ * Each path is run until the JIT has compiled it, then run again while the thread's
+ * allocated byte count is read from the ThreadMXBean. A path with no baseline entry
+ * fails, so new paths must be recorded. A path that allocates may go a few percent
+ * over its baseline, the bytes of a formatted log call vary a little from run to
+ * run. A path with a zero baseline must stay at zero. Arguments: the baseline properties file, and
+ * "update" to write the measured values to it instead of checking.
+ */
+public final class AllocationCheck
+{
+	private static final int	warmupCalls = 50000;
+	private static final int	measuredCalls = 20000;
+	private static final double	tolerance = .05;
+
+	private static final com.sun.management.ThreadMXBean	threads =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static final List<Path>	paths = new ArrayList<Path>();
+
+	private static double	sink;
+
+	// One per tick code path.
+	private static final class Path
+	{
+		final String		name;
+		final DoubleSupplier	body;
+
+		Path(String name, DoubleSupplier body)
+		{
+			this.name = name;
+			this.body = body;
+		}
+	}
+
+	private AllocationCheck()
+	{
+	}
+
+	private static void add(String name, DoubleSupplier body)
+	{
+		paths.add(new Path(name, body));
+	}
+
+	// Returns the bytes allocated per call of a path.
+	private static long measure(Path path)
+	{
+		double sum = 0;
+
+		for (int i = 0; i < warmupCalls; i++) sum += path.body.getAsDouble();
+
+		long start = threads.getCurrentThreadAllocatedBytes();
+
+		for (int i = 0; i < measuredCalls; i++) sum += path.body.getAsDouble();
+
+		long bytes = threads.getCurrentThreadAllocatedBytes() - start;
+
+		sink += sum;
+
+		// Integer division drops the few bytes the measurement itself may allocate.
+		return bytes / measuredCalls;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1) throw new IllegalArgumentException("usage: AllocationCheck <baseline file> [update]");
+
+		String	baselineFile = args[0];
+		boolean	update = args.length > 1 && args[1].equals("update");
+
+		Simulation.initialize();
+
+		setupLogging();
+		setupPaths();
+
+		Properties baseline = new Properties();
+
+		if (!update && new File(baselineFile).exists())
+			try (FileInputStream in = new FileInputStream(baselineFile)) { baseline.load(in); }
+
+		TreeMap<String, String>	measured = new TreeMap<String, String>();
+		int						failures = 0;
+
+		for (Path path : paths)
+		{
+			long	bytes = measure(path);
+			String	limit = baseline.getProperty(path.name);
+			String	result;
+
+			measured.put(path.name, Long.toString(bytes));
+
+			if (update)
+				result = "recorded";
+			else if (limit == null)
+			{
+				result = "FAILED, no baseline";
+				failures++;
+			}
+			else if (bytes > Long.parseLong(limit.trim()) * (1 + tolerance))
+			{
+				result = "FAILED, baseline " + limit.trim();
+				failures++;
+			}
+			else
+				result = "ok";
+
+			System.out.println(String.format("%-40s %6d bytes/call  %s", path.name, bytes, result));
+		}
+
+		// Written sorted and without a date so the file diffs cleanly.
+		if (update)
+			try (PrintWriter out = new PrintWriter(baselineFile, "UTF-8"))
+			{
+				out.println("# Maximum bytes allocated per call of each path, see AllocationCheck.");
+
+				measured.forEach((name, bytes) -> out.println(name + "=" + bytes));
+			}
+
+		System.out.println(String.format("%d paths checked, %d failed", paths.size(), failures));
+
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	// Log to a handler that formats records and discards them. It publishes INFO
+	// and above, so FINE calls take the disabled path.
+	private static void setupLogging()
+	{
+		Handler handler = new Handler()
+		{
+			@Override
+			public void publish(LogRecord record)
+			{
+				if (isLoggable(record)) sink += getFormatter().format(record).length();
+			}
+
+			@Override
+			public void flush() {}
+
+			@Override
+			public void close() {}
+		};
+
+		handler.setFormatter(new LogFormatter());
+		handler.setLevel(Level.INFO);
+
+		Util.logger.setUseParentHandlers(false);
+		Util.logger.setLevel(Level.ALL);
+		Util.logger.addHandler(handler);
+		Util.updateLogThreshold();
+	}
+
+	private static void setupPaths()
+	{
+		// Control.
+
+		SynchronousPID pid = new SynchronousPID(.1, .01, .001);
+
+		pid.setSetpoint(10);
+
+		add("SynchronousPID.calculate.dt", () -> pid.calculate(5, .02));
+		add("SynchronousPID.calculate", () -> pid.calculate(5));
+
+		// Encoders, on simulated motor controllers.
+
+		FXEncoder fxEncoder = new FXEncoder(new TalonFX(1));
+
+		fxEncoder.initializeSim();
+
+		add("FXEncoder.get", () -> fxEncoder.get());
+		add("FXEncoder.getDistance", () -> fxEncoder.getDistance());
+		add("FXEncoder.pidGet", () -> fxEncoder.pidGet());
+		add("FXEncoder.getAsDouble", () -> fxEncoder.getAsDouble());
+
+		SRXMagneticEncoderRelative srxEncoder = new SRXMagneticEncoderRelative(new WPI_TalonSRX(2));
+
+		add("SRXMagneticEncoderRelative.get", () -> srxEncoder.get());
+		add("SRXMagneticEncoderRelative.getDistance", () -> srxEncoder.getDistance());
+		add("SRXMagneticEncoderRelative.pidGet", () -> srxEncoder.pidGet());
+
+		// NavX.
+
+		NavX navx = NavX.getInstance();
+
+		add("NavX.getYaw", () -> navx.getYaw());
+		add("NavX.getTotalYaw", () -> navx.getTotalYaw());
+		add("NavX.getHeading", () -> navx.getHeading());
+		add("NavX.getAsDouble", () -> navx.getAsDouble());
+
+		// Joysticks, with simulated axes so WPILib does not warn about missing ones.
+
+		DriverStationSim.setJoystickAxisCount(0, 6);
+		DriverStationSim.setJoystickAxisCount(1, 6);
+		DriverStationSim.notifyNewData();
+		DriverStation.refreshData();
+
+		WpiJoyStick		joystick = new WpiJoyStick(0);
+		XboxController	xbox = new XboxController(1);
+		DoubleSupplier	joystickX = joystick.GetXDS(), joystickY = joystick.GetYDS();
+		DoubleSupplier	xboxLeftY = xbox.getLeftYDS(), xboxRightX = xbox.getRightXDS();
+
+		add("WpiJoyStick.GetXDS.getAsDouble", joystickX);
+		add("WpiJoyStick.GetYDS.getAsDouble", joystickY);
+		add("XboxController.getLeftYDS.getAsDouble", xboxLeftY);
+		add("XboxController.getRightXDS.getAsDouble", xboxRightX);
+
+		// Logging and tracing.
+
+		FunctionTracer	tracer = FunctionTracer.INSTANCE;
+		int				id = tracer.getFunctionId("allocationCheck");
+
+		add("Util.consoleLog.FINE.disabled", () -> { Util.consoleLog(Level.FINE, "value=%d", 1); return 0; });
+		add("Util.consoleLog.INFO.enabled", () -> { Util.consoleLog(Level.INFO, "value=%d", 1); return 0; });
+		add("Util.consoleLog.enabled", () -> { Util.consoleLog("value=%d", 1); return 0; });
+		add("FunctionTracer.enterExit", () -> { tracer.enterFunction(id); tracer.exitFunction(id); return 0; });
+		add("FunctionTracer.scope", () -> { try (FunctionTracer.Scope s = tracer.scope(id)) { return 0; } });
+	}
+}
@@ -0,0 +1,135 @@
+package Team4450.Lib.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Team4450.Lib.ColorUtil;
+import Team4450.Lib.DeadZone;
+import Team4450.Lib.RollingAverage;
+import Team4450.Lib.SynchronousPID;
+import Team4450.Lib.Wpilib.PIDBase;
+import Team4450.Lib.Wpilib.PIDSource;
+import Team4450.Lib.Wpilib.PIDSourceType;
+
+/**
+ * Benchmarks of the control and utility calculations robot code calls every loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlBenchmarks
+{
+	private SynchronousPID	synchronousPID;
+	private TestPID			pidBase;
+	private RollingAverage	rollingAverage;
+	private DeadZone		deadZone;
+	private double			input;
+	private int				color;
+
+	// PIDBase.calculate() is protected, this exposes it.
+	private static class TestPID extends PIDBase
+	{
+		TestPID(PIDSource source)
+		{
+			super(.1, .01, .001, source, output -> {});
+
+			m_enabled = true;
+		}
+
+		void step()
+		{
+			calculate();
+		}
+	}
+
+	@Setup
+	public void setup()
+	{
+		Simulation.initialize();
+
+		synchronousPID = new SynchronousPID(.1, .01, .001);
+		synchronousPID.setSetpoint(10);
+		synchronousPID.setOutputRange(-1, 1);
+
+		pidBase = new TestPID(new PIDSource()
+		{
+			@Override
+			public void setPIDSourceType(PIDSourceType pidSource) {}
+
+			@Override
+			public PIDSourceType getPIDSourceType() { return PIDSourceType.kDisplacement; }
+
+			@Override
+			public double pidGet() { return input; }
+		});
+		pidBase.setSetpoint(10);
+
+		rollingAverage = new RollingAverage(25);
+		deadZone = new DeadZone(.1, false);
+	}
+
+	// Varies the input so calculations can't be folded to constants.
+	private double nextInput()
+	{
+		input += .01;
+
+		if (input > 20) input = 0;
+
+		return input;
+	}
+
+	@Benchmark
+	public double synchronousPIDCalculateDt()
+	{
+		return synchronousPID.calculate(nextInput(), .02);
+	}
+
+	@Benchmark
+	public double synchronousPIDCalculate()
+	{
+		return synchronousPID.calculate(nextInput());
+	}
+
+	@Benchmark
+	public double pidBaseCalculate()
+	{
+		nextInput();
+
+		pidBase.step();
+
+		return pidBase.get();
+	}
+
+	@Benchmark
+	public double rollingAverageCalculate()
+	{
+		return rollingAverage.calculate(nextInput());
+	}
+
+	@Benchmark
+	public double deadZoneGet()
+	{
+		return deadZone.get(nextInput() / 20 - .5);
+	}
+
+	@Benchmark
+	public String colorNameFromRgb()
+	{
+		color = (color + 7919) & 0xffffff;
+
+		return ColorUtil.getColorNameFromRgb(color >> 16, (color >> 8) & 0xff, color & 0xff);
+	}
+}
@@ -0,0 +1,118 @@
+package Team4450.Lib.Benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import Team4450.Lib.FunctionTracer;
+import Team4450.Lib.LogFormatter;
+import Team4450.Lib.Util;
+
+/**
+ * Benchmarks of logging and function tracing. Log records are formatted by a
+ * handler that discards the text, so the benchmarks measure the logging path
+ * without disk or console output. The handler publishes INFO and above, so FINE
+ * messages measure the cost of a disabled log call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmarks
+{
+	private static final FunctionTracer	tracer = FunctionTracer.INSTANCE;
+	private static final int			functionId = tracer.getFunctionId("benchmark");
+
+	private int		count;
+
+	// Formats each record like the file handler does, then drops it.
+	private static class FormattingHandler extends Handler
+	{
+		private final LogFormatter	formatter = new LogFormatter();
+		volatile int				length;
+
+		@Override
+		public void publish(LogRecord record)
+		{
+			if (isLoggable(record)) length = formatter.format(record).length();
+		}
+
+		@Override
+		public void flush() {}
+
+		@Override
+		public void close() {}
+	}
+
+	@Setup
+	public void setup()
+	{
+		Handler handler = new FormattingHandler();
+
+		handler.setLevel(Level.INFO);
+
+		Util.logger.setUseParentHandlers(false);
+		Util.logger.setLevel(Level.ALL);
+
+		for (Handler h : Util.logger.getHandlers()) Util.logger.removeHandler(h);
+
+		Util.logger.addHandler(handler);
+		Util.updateLogThreshold();
+	}
+
+	@Benchmark
+	public void consoleLogEnabled()
+	{
+		Util.consoleLog("count=%d", count++);
+	}
+
+	@Benchmark
+	public void consoleLogLevelEnabled()
+	{
+		Util.consoleLog(Level.INFO, "count=%d", count++);
+	}
+
+	@Benchmark
+	public void consoleLogLevelDisabled()
+	{
+		Util.consoleLog(Level.FINE, "count=%d", count++);
+	}
+
+	@Benchmark
+	public void tracerEnterExit()
+	{
+		tracer.enterFunction(functionId);
+		tracer.exitFunction(functionId);
+	}
+
+	@Benchmark
+	public void tracerEnterExitByName()
+	{
+		tracer.enterFunction("benchmark");
+		tracer.exitFunction("benchmark");
+	}
+
+	@Benchmark
+	public void tracerScope(Blackhole bh)
+	{
+		try (FunctionTracer.Scope s = tracer.scope(functionId))
+		{
+			bh.consume(s);
+		}
+	}
+}
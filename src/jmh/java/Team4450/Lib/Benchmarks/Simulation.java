@@ -0,0 +1,25 @@
+package Team4450.Lib.Benchmarks;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Starts the WPILib HAL in simulation so library code that reads the FPGA clock
+ * or other HAL values can run on the desktop.
+ */
+final class Simulation
+{
+	private static boolean	initialized;
+
+	private Simulation()
+	{
+	}
+
+	static synchronized void initialize()
+	{
+		if (initialized) return;
+
+		if (!HAL.initialize(500, 0)) throw new IllegalStateException("HAL initialization failed");
+
+		initialized = true;
+	}
+}
@@ -1,13 +1,22 @@
 package Team4450.Lib;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.System.Logger.Level;
+import java.nio.charset.Charset;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
 import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import java.util.Objects;
 
 //  This class was found on the net.
 
@@ -15,12 +24,56 @@ import java.util.logging.LogRecord;
  * Wraps FileHandler class to Implement multi-threaded logging. Queues log records
  * submitted by calling thread and writes them to disk file on a separate
  * thread. Frees calling thread from the I/O overhead.
+ * <p>
+ * By default records are queued on a blocking queue and if the queue is full the
+ * record is written to disk on the calling thread. Optionally the handler can use
+ * a lock-free ring buffer that never blocks the calling thread. When the ring
+ * buffer is full an {@link OverflowPolicy} decides which record is discarded.
+ * <p>
+ * Also optionally, the worker thread can write records in batches. It drains all
+ * queued records, formats them into one buffer and writes the buffer to the file
+ * with a single FileChannel write when a size or time watermark is reached. See
+ * {@link #withBatchedWrites(int, double)}.
  */
 public class AsyncFileHandler extends FileHandler implements Runnable 
 {
     private static final int	offValue = Level.OFF.ordinal();
-    private final				BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(1024);
+    private static final long	workerParkNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private final				BlockingQueue<LogRecord> queue;
+    private final				LogRingBuffer ring;
+    private final				OverflowPolicy overflowPolicy;
+    private final String		pattern;
+    private final int			limit, count;
+    private volatile LogFileWriter	writer;
+    private boolean				headWritten;
     private volatile Thread		worker;
+    private volatile boolean	workerWaiting;
+    private volatile LogRecord	lastRecord;
+    
+    // Run of records discarded under the COALESCE policy. The record and its count
+    // are only changed together, under repeatLock.
+    private final Object		repeatLock = new Object();
+    private LogRecord			repeatedRecord;
+    private volatile int		pendingRepeats;
+    
+    private final AtomicLong	droppedCount = new AtomicLong(), coalescedCount = new AtomicLong();
+    private final AtomicInteger	highWaterMark = new AtomicInteger();
+    
+    /**
+     * What to do with a new log record when the ring buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /** Discard the oldest queued record to make room for the new one. */
+        DROP_OLDEST,
+        /** Discard the new record. */
+        DROP_NEWEST,
+        /**
+         * Discard the new record but if it is the same as the previous record, count
+         * it and write a single "repeated n times" record when there is room.
+         */
+        COALESCE
+    }
 
     /**
      * See Java FileHandler class for parameter documentation.
@@ -28,6 +81,12 @@ public class AsyncFileHandler extends FileHandler implements Runnable
     public AsyncFileHandler() throws IOException 
     {
         super();
+        
+        queue = new ArrayBlockingQueue<>(1024);
+        ring = null;
+        overflowPolicy = null;
+        pattern = null;
+        limit = count = 0;
     }
 
     /**
@@ -35,7 +94,7 @@ public class AsyncFileHandler extends FileHandler implements Runnable
      */
     public AsyncFileHandler(String pattern, int limit, int count) throws IOException 
     {
-        super(pattern, limit, count);
+        this(pattern, limit, count, false);
     }
 
     /**
@@ -44,6 +103,83 @@ public class AsyncFileHandler extends FileHandler implements Runnable
     public AsyncFileHandler(String pattern, int limit, int count, boolean append) throws IOException 
     {
         super(pattern, limit, count, append);
+        
+        queue = new ArrayBlockingQueue<>(1024);
+        ring = null;
+        overflowPolicy = null;
+        this.pattern = pattern;
+        this.limit = limit;
+        this.count = count;
+    }
+
+    /**
+     * Creates a handler that queues records on a lock-free ring buffer. Calling threads
+     * are never blocked and never write to disk. See Java FileHandler class for
+     * documentation of the first three parameters.
+     * @param pattern The pattern for naming the output file.
+     * @param limit The maximum number of bytes to write to any one file.
+     * @param count The number of files to use.
+     * @param capacity Number of record slots in the ring buffer, rounded up to a power of 2.
+     * @param policy What to do with new records when the ring buffer is full.
+     */
+    public AsyncFileHandler(String pattern, int limit, int count, int capacity, OverflowPolicy policy) throws IOException 
+    {
+        super(pattern, limit, count);
+        
+        queue = null;
+        ring = new LogRingBuffer(capacity);
+        overflowPolicy = Objects.requireNonNull(policy, "policy");
+        this.pattern = pattern;
+        this.limit = limit;
+        this.count = count;
+    }
+
+    /**
+     * Switch the worker thread to batched writes. Instead of handing records to the
+     * FileHandler one at a time, the worker drains all queued records, formats them
+     * into one reusable buffer and writes the buffer with a single FileChannel write
+     * when the buffer is 3/4 full or the oldest record in it reaches the flush
+     * interval. The worker also handles file rotation, using the same generation
+     * naming as FileHandler. The FileHandler's own stream on the file is closed and
+     * replaced with a null stream so the worker is the only writer of the file.
+     * Must be called before the first record is published.
+     * @param bufferSize Size of the write buffer in bytes, minimum 1024.
+     * @param flushInterval Maximum time in seconds a record is held before it is
+     * written to disk.
+     * @return Itself
+     * @throws IOException
+     */
+    public synchronized AsyncFileHandler withBatchedWrites(int bufferSize, double flushInterval) throws IOException
+    {
+        if (pattern == null) throw new IllegalStateException("batched writes require a file name pattern");
+        
+        if (worker != null) throw new IllegalStateException("batched writes must be enabled before logging starts");
+        
+        String encoding = getEncoding();
+        
+        // Closing the FileHandler's stream writes the formatter head and tail to it,
+        // use a formatter that has none. The file was already rotated or opened for
+        // append by the FileHandler constructor, so the writer appends to it.
+        Formatter formatter = getFormatter();
+        
+        setFormatter(new SimpleFormatter());
+        setOutputStream(OutputStream.nullOutputStream());
+        setFormatter(formatter);
+        
+        writer = new LogFileWriter(pattern, limit, count, 
+        						   encoding == null ? Charset.defaultCharset() : Charset.forName(encoding),
+        						   bufferSize, flushInterval);
+        
+        return this;
+    }
+    
+    /**
+     * Returns true if the worker thread is writing records in batches.
+     * @return True if batched writes enabled.
+     */
+    public boolean isBatched()
+    {
+        return writer != null;
     }
 
     /**
@@ -63,6 +199,12 @@ public class AsyncFileHandler extends FileHandler implements Runnable
 
         record.getSourceMethodName(); //Infer caller.
         
+        if (ring != null)
+        {
+            publishToRing(t, record);
+            return;
+        }
+        
         boolean interrupted = Thread.interrupted();
         
         try {
@@ -73,7 +215,7 @@ public class AsyncFileHandler extends FileHandler implements Runnable
             
                     if (t == null || !t.isAlive()) 
                     {
-                        if (!offered || queue.remove(record)) super.publish(record);
+                        if (!offered || queue.remove(record)) write(record);
                        
                         break;
                     } else {
@@ -84,11 +226,213 @@ public class AsyncFileHandler extends FileHandler implements Runnable
         } finally { if (interrupted) Thread.currentThread().interrupt(); }
     }
 
+    // Ring buffer version of publish. Never blocks the calling thread. The record
+    // is only written on the calling thread if the worker thread has died.
+    private void publishToRing(Thread t, LogRecord record)
+    {
+        if (t == null || !t.isAlive())
+        {
+            write(record);
+            return;
+        }
+        
+        // Any repeat notice goes on the ring ahead of the record so it is written in order.
+        if ((pendingRepeats > 0 && !queueRepeats()) || !ring.offer(record))
+        {
+            if (JfrEvents.ENABLED) JfrEvents.LogOverflow.emit(overflowPolicy.name(), ring.size(), droppedCount.get());
+            
+            switch (overflowPolicy)
+            {
+                case DROP_OLDEST:
+                    // Other producers may take the freed slot before we get to it
+                    // so try a few times and then give up on the new record.
+                    boolean offered = false;
+                    
+                    for (int i = 0; i < 3 && !offered; i++)
+                    {
+                        if (ring.poll() != null) droppedCount.incrementAndGet();
+                        
+                        offered = ring.offer(record);
+                    }
+                    
+                    if (!offered)
+                    {
+                        droppedCount.incrementAndGet();
+                        return;
+                    }
+                    
+                    break;
+                    
+                case COALESCE:
+                    if (isRepeat(record))
+                    {
+                        coalescedCount.incrementAndGet();
+                        
+                        // The notice takes level and logger from the record being repeated.
+                        synchronized (repeatLock)
+                        {
+                            if (pendingRepeats == 0) repeatedRecord = record;
+                            
+                            pendingRepeats++;
+                        }
+                        
+                        return;
+                    }
+                    
+                    droppedCount.incrementAndGet();
+                    return;
+                    
+                default:
+                    droppedCount.incrementAndGet();
+                    return;
+            }
+        }
+        
+        lastRecord = record;
+        
+        int size = ring.size();
+        
+        for (int mark = highWaterMark.get(); size > mark; mark = highWaterMark.get())
+            if (highWaterMark.compareAndSet(mark, size)) break;
+        
+        if (workerWaiting) LockSupport.unpark(t);
+    }
+    
+    // Is record the same as the last queued record.
+    private boolean isRepeat(LogRecord record)
+    {
+        LogRecord last = lastRecord;
+        
+        return last != null && last.getLevel() == record.getLevel() && 
+               Objects.equals(last.getMessage(), record.getMessage());
+    }
+    
+    // Write a record for repeats of the last record discarded under the COALESCE policy.
+    // Called by the worker when the ring is empty, so nothing queued can follow it.
+    private void publishRepeats()
+    {
+        if (pendingRepeats == 0) return;
+        
+        LogRecord	repeated;
+        int			repeats;
+        
+        synchronized (repeatLock)
+        {
+            repeated = repeatedRecord;
+            repeats = pendingRepeats;
+            
+            repeatedRecord = null;
+            pendingRepeats = 0;
+        }
+        
+        if (repeated != null) write(repeatNotice(repeated, repeats));
+    }
+    
+    // Queue the notice for repeats discarded under the COALESCE policy. Returns false,
+    // keeping the count, if there is no room for it.
+    private boolean queueRepeats()
+    {
+        if (ring.size() >= ring.capacity()) return false;
+        
+        LogRecord	repeated;
+        int			repeats;
+        
+        synchronized (repeatLock)
+        {
+            repeated = repeatedRecord;
+            repeats = pendingRepeats;
+            
+            repeatedRecord = null;
+            pendingRepeats = 0;
+        }
+        
+        if (repeated == null || ring.offer(repeatNotice(repeated, repeats))) return true;
+        
+        // No room after all, put the count back.
+        synchronized (repeatLock)
+        {
+            if (pendingRepeats == 0) repeatedRecord = repeated;
+            
+            pendingRepeats += repeats;
+        }
+        
+        return false;
+    }
+    
+    private LogRecord repeatNotice(LogRecord repeated, int repeats)
+    {
+        LogRecord r = new LogRecord(repeated.getLevel(), String.format("last message repeated %d times\r", repeats));
+        
+        r.setLoggerName(repeated.getLoggerName());
+        
+        return r;
+    }
+    
+    /**
+     * Returns number of log records discarded because the ring buffer was full.
+     * Always zero when not using the ring buffer.
+     * @return Dropped record count.
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+    
+    /**
+     * Returns number of duplicate log records folded into a repeat count under the
+     * COALESCE overflow policy.
+     * @return Coalesced record count.
+     */
+    public long getCoalescedCount()
+    {
+        return coalescedCount.get();
+    }
+    
+    /**
+     * Returns the highest number of records that have been waiting in the ring
+     * buffer. Always zero when not using the ring buffer.
+     * @return Queue high-water mark.
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark.get();
+    }
+    
+    /**
+     * Returns the ring buffer capacity.
+     * @return Number of record slots, zero if not using the ring buffer.
+     */
+    public int getCapacity()
+    {
+        return ring == null ? 0 : ring.capacity();
+    }
+    
+    /**
+     * Returns the overflow policy.
+     * @return The policy, null if not using the ring buffer.
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+    
+    /**
+     * Reset the dropped, coalesced and high-water mark counters.
+     */
+    public void resetCounters()
+    {
+        droppedCount.set(0);
+        coalescedCount.set(0);
+        highWaterMark.set(0);
+    }
+
     // If we can't queue a log record, forwards the record to the underlying
     // FileHandler object.
     private boolean handleFullQueue(LogRecord r) 
     {
-        super.publish(r);
+        if (JfrEvents.ENABLED) JfrEvents.LogOverflow.emit("WRITE_THROUGH", queue.size(), droppedCount.get());
+        
+        write(r);
         return true; //true if handled.
     }
 
@@ -110,14 +454,98 @@ public class AsyncFileHandler extends FileHandler implements Runnable
                     t.join();
                     //shutdownQueue();
                 }
+                
+                closeWriter();
             } finally { super.close(); }
         } catch (InterruptedException reAssert) { Thread.currentThread().interrupt(); }
     }
 
+    /**
+     * Flush buffered records to disk.
+     */
+    @Override
+    public void flush()
+    {
+        final LogFileWriter w = writer;
+        
+        if (w != null)
+        {
+            synchronized (w)
+            {
+                try {
+                    w.flush();
+                } catch (IOException e) { reportError(null, e, ErrorManager.FLUSH_FAILURE); }
+            }
+        }
+        
+        super.flush();
+    }
+    
+    // Write a record to disk, through the batch writer if enabled or the
+    // parent FileHandler if not.
+    private void write(LogRecord r)
+    {
+        final LogFileWriter w = writer;
+        
+        if (w == null)
+        {
+            super.publish(r);
+            return;
+        }
+        
+        if (!isLoggable(r)) return;
+        
+        String text;
+        
+        try {
+            text = getFormatter().format(r);
+        } catch (Exception e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        
+        synchronized (w)
+        {
+            try {
+                if (!headWritten)
+                {
+                    w.append(getFormatter().getHead(this));
+                    headWritten = true;
+                }
+                
+                w.append(text);
+            } catch (IOException e) { reportError(null, e, ErrorManager.WRITE_FAILURE); }
+        }
+    }
+    
+    // Write formatter tail and close the batch writer.
+    private void closeWriter()
+    {
+        final LogFileWriter w = writer;
+        
+        if (w == null) return;
+        
+        synchronized (w)
+        {
+            try {
+                if (headWritten) w.append(getFormatter().getTail(this));
+                
+                w.close();
+            } catch (IOException e) { reportError(null, e, ErrorManager.CLOSE_FAILURE); }
+        }
+    }
+    
     // Dumps queue to disk.
     private void shutdownQueue() 
     {
-        for (LogRecord r; (r = queue.poll()) != null;) super.publish(r);
+        if (ring != null)
+        {
+            for (LogRecord r; (r = ring.poll()) != null;) write(r);
+            
+            publishRepeats();
+        }
+        else
+            for (LogRecord r; (r = queue.poll()) != null;) write(r);
     }
 
     /**
@@ -126,16 +554,111 @@ public class AsyncFileHandler extends FileHandler implements Runnable
     @Override
     public void run() 
     {
+        if (writer != null)
+        {
+            runBatched();
+            return;
+        }
+        
+        if (ring != null)
+        {
+            runRing();
+            return;
+        }
+        
         try {
             final BlockingQueue<LogRecord> q = this.queue;
     
-            for (;;) super.publish(q.take()); 
+            for (;;) write(q.take()); 
         } catch (InterruptedException shutdown) {
             shutdownQueue();
             Thread.currentThread().interrupt();
         }
     }
     
+    // Worker loop for the ring buffer. Parks when the buffer is empty. Producers
+    // unpark us when they see we are waiting, the timed park covers a missed wakeup.
+    private void runRing()
+    {
+        final Thread self = Thread.currentThread();
+        
+        while (!self.isInterrupted())
+        {
+            LogRecord r = ring.poll();
+            
+            if (r != null)
+            {
+                write(r);
+                continue;
+            }
+            
+            publishRepeats();
+            
+            workerWaiting = true;
+            
+            if (ring.isEmpty()) LockSupport.parkNanos(this, workerParkNanos);
+            
+            workerWaiting = false;
+        }
+        
+        shutdownQueue();
+    }
+    
+    // Worker loop for batched writes. Drains the queue or ring buffer into the batch
+    // writer. When there is nothing to drain, writes the batch if the time watermark
+    // has been reached and waits for more records.
+    private void runBatched()
+    {
+        final Thread		self = Thread.currentThread();
+        final LogFileWriter	w = writer;
+        
+        while (!self.isInterrupted())
+        {
+            LogRecord r = (ring != null) ? ring.poll() : queue.poll();
+            
+            if (r != null)
+            {
+                write(r);
+                continue;
+            }
+            
+            publishRepeats();
+            
+            long due;
+            
+            synchronized (w)
+            {
+                try {
+                    due = w.flushIfDue();
+                } catch (IOException e) {
+                    reportError(null, e, ErrorManager.FLUSH_FAILURE);
+                    due = Long.MAX_VALUE;
+                }
+            }
+            
+            long wait = Math.min(due, workerParkNanos);
+            
+            if (ring != null)
+            {
+                workerWaiting = true;
+                
+                if (ring.isEmpty()) LockSupport.parkNanos(this, wait);
+                
+                workerWaiting = false;
+            }
+            else
+            {
+                try {
+                    r = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    
+                    if (r != null) write(r);
+                } catch (InterruptedException shutdown) { self.interrupt(); }
+            }
+        }
+        
+        shutdownQueue();
+    }
+    
     // See if we have started the worker thread and if not, start it.
     private Thread checkWorker() 
     {
@@ -0,0 +1,310 @@
+package Team4450.Lib;
+
+import java.util.EventListener;
+import java.util.EventObject;
+
+/**
+ * Predicts brownouts before they happen. Battery voltage under load is modeled as
+ * V = Voc - I * R, where Voc is the open circuit voltage and R the internal resistance
+ * of the battery and wiring. R is fit online with recursive least squares from the
+ * change in voltage against the change in current between samples, which cancels out
+ * the slow drop of Voc as the battery discharges. Voc is then estimated from each
+ * sample and R.
+ * <p>
+ * Each sample the current trend (amps per second) is projected ahead by the
+ * prediction horizon and the resulting bus voltage is predicted. When the predicted
+ * voltage falls below the threshold a brownoutPredicted event is raised, and when it
+ * recovers a brownoutCleared event is raised, so robot code can shed load (such as
+ * capping drive output) before the RoboRio browns out. getMaxCurrent() returns the
+ * total current the battery can supply before sagging to the threshold.
+ * <p>
+ * Turned on with MonitorPDP.enableBrownoutPrediction(), which feeds it every sample
+ * cycle. Set the monitor's sample interval to .05 second or less, a slower sample
+ * rate will see the sag after it has happened.
+ */
+public class BrownoutPredictor
+{
+	// Forgetting factor, how fast old samples lose weight in the resistance fit.
+	private static final double		LAMBDA = 0.99;
+	// Smallest current change between samples used to fit resistance. Smaller steps
+	// are mostly noise and would wind up the fit.
+	private static final double		MIN_CURRENT_STEP = 4.0;
+	// Plausible battery + wiring resistance in ohms, fit is clamped to this range.
+	private static final double		MIN_RESISTANCE = .005, MAX_RESISTANCE = .1;
+	private static final double		MAX_COVARIANCE = 1.0e-3;
+	// Smoothing of open circuit voltage and current slope estimates.
+	private static final double		VOC_ALPHA = .1, SLOPE_ALPHA = .3;
+
+	private double					threshold = 7.0, hysteresis = .25, horizon = .1;	// Volts, volts, seconds
+
+	private double					resistance = .02, covariance = 1.0e-4, openCircuitVoltage;
+	private double					currentSlope, predictedVoltage, lastTime = Double.NaN, lastVoltage, lastCurrent;
+	private boolean					brownoutPredicted;
+	private volatile BrownoutEventListener	eventListener;
+
+	/**
+	 * Create a BrownoutPredictor with default threshold (7 volts) and horizon (.1 second).
+	 */
+	public BrownoutPredictor()
+	{
+		Util.consoleLog();
+
+		MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+
+		metrics.gauge("BrownoutPredictor/Resistance", this::getResistance);
+		metrics.gauge("BrownoutPredictor/OpenCircuitVoltage", this::getOpenCircuitVoltage);
+		metrics.gauge("BrownoutPredictor/PredictedVoltage", this::getPredictedVoltage);
+		metrics.gauge("BrownoutPredictor/Predicted", () -> isBrownoutPredicted() ? 1 : 0);
+	}
+
+	/**
+	 * Sets the bus voltage below which a brownout is predicted. The RoboRio starts
+	 * disabling outputs at 6.8 volts, set the threshold above that to leave time to
+	 * shed load.
+	 * @param volts Threshold voltage, defaults to 7.
+	 * @return This BrownoutPredictor object.
+	 */
+	public synchronized BrownoutPredictor withThreshold(double volts)
+	{
+		threshold = volts;
+
+		return this;
+	}
+
+	/**
+	 * Sets how far above the threshold the predicted voltage must recover before
+	 * the prediction is cleared.
+	 * @param volts Hysteresis voltage, defaults to .25.
+	 * @return This BrownoutPredictor object.
+	 */
+	public synchronized BrownoutPredictor withHysteresis(double volts)
+	{
+		hysteresis = volts;
+
+		return this;
+	}
+
+	/**
+	 * Sets how far ahead the current trend is projected to predict the voltage.
+	 * @param seconds Prediction horizon, defaults to .1.
+	 * @return This BrownoutPredictor object.
+	 */
+	public synchronized BrownoutPredictor withHorizon(double seconds)
+	{
+		horizon = seconds;
+
+		return this;
+	}
+
+	/**
+	 * Add a sample from a PDP/PDH snapshot. Called by MonitorPDP each sample cycle.
+	 * @param snapshot The sample.
+	 */
+	public void update(PowerSnapshot snapshot)
+	{
+		update(snapshot.getTimeStamp(), snapshot.getVoltage(), snapshot.getTotalCurrent());
+	}
+
+	/**
+	 * Add a sample of battery voltage and total current measured at the same time.
+	 * @param time Sample time in seconds.
+	 * @param voltage Bus voltage in volts.
+	 * @param current Total current in amps.
+	 */
+	public void update(double time, double voltage, double current)
+	{
+		BrownoutEventType	eventType = null;
+		double				predicted;
+
+		synchronized (this)
+		{
+			if (!Double.isNaN(lastTime) && time > lastTime)
+			{
+				double currentStep = current - lastCurrent;
+
+				// Fit R to dV = -R * dI, scalar recursive least squares.
+				if (Math.abs(currentStep) >= MIN_CURRENT_STEP)
+				{
+					double x = -currentStep;
+					double gain = covariance * x / (LAMBDA + x * covariance * x);
+
+					resistance += gain * ((voltage - lastVoltage) - x * resistance);
+					resistance = Math.max(MIN_RESISTANCE, Math.min(MAX_RESISTANCE, resistance));
+					covariance = Math.min(MAX_COVARIANCE, (covariance - gain * x * covariance) / LAMBDA);
+				}
+
+				currentSlope += SLOPE_ALPHA * (currentStep / (time - lastTime) - currentSlope);
+
+				openCircuitVoltage += VOC_ALPHA * (voltage + current * resistance - openCircuitVoltage);
+			}
+			else
+				openCircuitVoltage = voltage + current * resistance;
+
+			lastTime = time;
+			lastVoltage = voltage;
+			lastCurrent = current;
+
+			// Only a rising current trend is projected, a falling one can't cause a brownout.
+			predicted = openCircuitVoltage - resistance * (current + Math.max(0, currentSlope) * horizon);
+			predicted = Math.min(predicted, voltage);
+
+			predictedVoltage = predicted;
+
+			if (!brownoutPredicted && predictedVoltage < threshold)
+			{
+				brownoutPredicted = true;
+				eventType = BrownoutEventType.brownoutPredicted;
+			}
+			else if (brownoutPredicted && predictedVoltage > threshold + hysteresis)
+			{
+				brownoutPredicted = false;
+				eventType = BrownoutEventType.brownoutCleared;
+			}
+		}
+
+		if (eventType != null)
+		{
+			Util.consoleLog("%s: predicted %.2fv at %.1fA", eventType, predicted, current);
+
+			notifyEventListener(eventType, predicted);
+		}
+	}
+
+	/**
+	 * Clear the fit and prediction, keeping the settings.
+	 */
+	public synchronized void reset()
+	{
+		resistance = .02;
+		covariance = 1.0e-4;
+		openCircuitVoltage = currentSlope = predictedVoltage = 0;
+		lastTime = Double.NaN;
+		brownoutPredicted = false;
+	}
+
+	/**
+	 * Returns true if the predicted voltage is below the threshold.
+	 * @return True if brownout predicted.
+	 */
+	public synchronized boolean isBrownoutPredicted()
+	{
+		return brownoutPredicted;
+	}
+
+	/**
+	 * Returns the bus voltage predicted at the horizon from the last sample.
+	 * @return Voltage in volts.
+	 */
+	public synchronized double getPredictedVoltage()
+	{
+		return predictedVoltage;
+	}
+
+	/**
+	 * Returns the fitted battery + wiring internal resistance.
+	 * @return Resistance in ohms.
+	 */
+	public synchronized double getResistance()
+	{
+		return resistance;
+	}
+
+	/**
+	 * Returns the estimated battery open circuit (no load) voltage.
+	 * @return Voltage in volts.
+	 */
+	public synchronized double getOpenCircuitVoltage()
+	{
+		return openCircuitVoltage;
+	}
+
+	/**
+	 * Returns the smoothed rate of change of total current.
+	 * @return Amps per second.
+	 */
+	public synchronized double getCurrentSlope()
+	{
+		return currentSlope;
+	}
+
+	/**
+	 * Returns the total current the battery can supply before the bus voltage
+	 * sags to the threshold.
+	 * @return Current in amps.
+	 */
+	public synchronized double getMaxCurrent()
+	{
+		return Math.max(0, (openCircuitVoltage - threshold) / resistance);
+	}
+
+	/**
+	 * Returns the current that can be added to the last sample's load before the
+	 * bus voltage sags to the threshold. Negative when already below. Robot code
+	 * can scale mechanism output by this to shed load.
+	 * @return Current in amps.
+	 */
+	public synchronized double getCurrentHeadroom()
+	{
+		return getMaxCurrent() - lastCurrent;
+	}
+
+	// Event Handling classes.
+
+	/**
+	 * Brownout event type enumeration
+	 */
+	public enum BrownoutEventType
+	{
+		brownoutPredicted,
+		brownoutCleared;
+	}
+
+	/**
+	 *  Event description class returned to event handler. Event data is the
+	 *  predicted voltage (Double).
+	 */
+	public class BrownoutEvent extends EventObject
+	{
+		private static final long serialVersionUID = 1L;
+
+		public BrownoutEventType	eventType;
+		public Object				eventData;
+
+		public BrownoutEvent(Object source, BrownoutEventType eventType, Object eventData)
+		{
+			super(source);
+			this.eventType = eventType;
+			this.eventData = eventData;
+		}
+	}
+
+	/**
+	 *  Java Interface definition for event listener.
+	 */
+	public interface BrownoutEventListener extends EventListener
+	{
+		public void event(BrownoutEvent brownoutEvent);
+	}
+
+	/**
+	 * Register a BrownoutEventListener object instance to receive events. Events
+	 * are delivered on the MonitorEvents thread, not the thread calling update().
+	 * @param listener BrownoutEventListener object instance to receive events.
+	 */
+	public void setBrownoutEventListener(BrownoutEventListener listener)
+	{
+		this.eventListener = listener;
+	}
+
+	private void notifyEventListener(BrownoutEventType eventType, Object eventData)
+	{
+		BrownoutEventListener listener = eventListener;
+
+		if (listener != null)
+		{
+			BrownoutEvent event = new BrownoutEvent(this, eventType, eventData);
+
+			MonitorScheduler.INSTANCE.dispatch(() -> listener.event(event));
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package Team4450.Lib;
+
+import java.lang.StackWalker.StackFrame;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Identifies the program location of a logging call. Call sites are found with a
+ * StackWalker that only walks the frames it needs instead of capturing the whole
+ * stack with a Throwable. The formatted "Class.method(File:line)" text is built
+ * once per call site and cached per class, so repeat calls from the same site
+ * only cost the short stack walk and a table lookup.
+ */
+final class CallSite
+{
+    private static final StackWalker   walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static final int           maxCachedDepth = 8;
+    private static volatile int        generation;
+    private static int                 nextId;
+
+    private static final ClassValue<SiteTable> tables = new ClassValue<SiteTable>()
+    {
+        @Override
+        protected SiteTable computeValue(Class<?> type) { return new SiteTable(); }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static final Function<Stream<StackFrame>, Optional<StackFrame>>[] finders = new Function[maxCachedDepth];
+
+    static
+    {
+        for (int i = 0; i < maxCachedDepth; i++)
+        {
+            final int depth = i;
+
+            finders[i] = frames -> frames.skip(depth).findFirst();
+        }
+    }
+
+    /**
+     * Unique number assigned to this call site.
+     */
+    final int       id;
+
+    /**
+     * Name of the class and method containing the call site.
+     */
+    final String    className, methodName;
+
+    private final int       byteCodeIndex;
+    private final String    rawLocation;
+    private String          location;
+    private volatile int    locationGeneration = -1;
+
+    private CallSite(StackFrame frame)
+    {
+        synchronized (CallSite.class) { id = nextId++; }
+
+        className = frame.getClassName();
+        methodName = frame.getMethodName();
+        byteCodeIndex = frame.getByteCodeIndex();
+        rawLocation = frame.toStackTraceElement().toString();
+    }
+
+    /**
+     * Find the call site a number of frames up the stack.
+     * @param depth Number of frames to skip, 0 is the caller of this method.
+     * @return The call site or null if the stack is not that deep.
+     */
+    static CallSite find(int depth)
+    {
+        // Skip this method's frame.
+        depth++;
+
+        Optional<StackFrame> frame;
+
+        if (depth < maxCachedDepth)
+            frame = walker.walk(finders[depth]);
+        else
+        {
+            final int skip = depth;
+
+            frame = walker.walk(frames -> frames.skip(skip).findFirst());
+        }
+
+        if (frame.isEmpty()) return null;
+
+        StackFrame f = frame.get();
+
+        return tables.get(f.getDeclaringClass()).get(f);
+    }
+
+    /**
+     * Find the class of the method a number of frames up the stack.
+     * @param depth Number of frames to skip, 0 is the caller of this method.
+     * @return The class or null if the stack is not that deep.
+     */
+    static Class<?> findClass(int depth)
+    {
+        depth++;
+
+        Optional<StackFrame> frame;
+
+        if (depth < maxCachedDepth)
+            frame = walker.walk(finders[depth]);
+        else
+        {
+            final int skip = depth;
+
+            frame = walker.walk(frames -> frames.skip(skip).findFirst());
+        }
+
+        return frame.isEmpty() ? null : frame.get().getDeclaringClass();
+    }
+
+    /**
+     * Returns the full program location text of the call site.
+     * @return Location text, "Class.method(File:line)".
+     */
+    String getRawLocation()
+    {
+        return rawLocation;
+    }
+
+    /**
+     * Discard cached location text, call when the package strip marker changes.
+     */
+    static void invalidate()
+    {
+        generation++;
+    }
+
+    /**
+     * Returns program location text with everything up to and including the
+     * package strip marker removed.
+     * @param stripMarker The package strip marker.
+     * @return Location text.
+     */
+    String getLocation(String stripMarker)
+    {
+        int gen = generation;
+
+        if (locationGeneration != gen)
+        {
+            // This scheme depends on having one level in the package name between
+            // Team4450 and the class name, ie: Team4450.lib.Util.method. New levels
+            // will require rewrite.
+
+            String text;
+
+            try
+            {
+                text = rawLocation.split(stripMarker)[1];
+            }
+            catch (Throwable e)
+            {
+                text = "method not found";
+            }
+
+            location = text;
+            locationGeneration = gen;
+        }
+
+        return location;
+    }
+
+    // Open addressing table of the call sites in one class keyed by method name and
+    // byte code index. Lookups do not lock or allocate, inserts copy the table.
+    private static final class SiteTable
+    {
+        private volatile CallSite[] sites = new CallSite[16];
+        private int                 count;
+
+        CallSite get(StackFrame frame)
+        {
+            String      method = frame.getMethodName();
+            int         bci = frame.getByteCodeIndex();
+            CallSite[]  table = sites;
+            int         mask = table.length - 1;
+
+            for (int i = hash(method, bci) & mask; ; i = (i + 1) & mask)
+            {
+                CallSite site = table[i];
+
+                if (site == null) return add(frame);
+
+                if (site.byteCodeIndex == bci && site.methodName.equals(method)) return site;
+            }
+        }
+
+        private synchronized CallSite add(StackFrame frame)
+        {
+            String      method = frame.getMethodName();
+            int         bci = frame.getByteCodeIndex();
+            CallSite[]  table = sites;
+
+            // Another thread may have added the site while we waited for the lock.
+
+            for (CallSite site : table)
+                if (site != null && site.byteCodeIndex == bci && site.methodName.equals(method)) return site;
+
+            CallSite    newSite = new CallSite(frame);
+            CallSite[]  newTable = new CallSite[(count + 1) * 2 > table.length ? table.length * 2 : table.length];
+
+            for (CallSite site : table) if (site != null) insert(newTable, site);
+
+            insert(newTable, newSite);
+
+            count++;
+            sites = newTable;
+
+            return newSite;
+        }
+
+        private static void insert(CallSite[] table, CallSite site)
+        {
+            int mask = table.length - 1;
+            int i = hash(site.methodName, site.byteCodeIndex) & mask;
+
+            while (table[i] != null) i = (i + 1) & mask;
+
+            table[i] = site;
+        }
+
+        private static int hash(String method, int bci)
+        {
+            return (method.hashCode() * 31 + bci) * 0x9E3779B9 >>> 8;
+        }
+    }
+}
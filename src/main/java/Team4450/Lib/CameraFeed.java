@@ -281,11 +281,15 @@ public class CameraFeed extends Thread
 		{
 			if (currentCamera != null)
 			{	
+				JfrEvents.CameraFrame event = JfrEvents.ENABLED ? JfrEvents.CameraFrame.start() : null;
+				
 			    synchronized (lockObj) 
 			    {
 			    	result = imageSource.grabFrame(image);
 			    }
 			    
+			    if (event != null) event.finish(currentCamera.getName(), result != 0, image.cols(), image.rows());
+			    
 			    if (result != 0) return image;
 			}
 		}
@@ -0,0 +1,39 @@
+package Team4450.Lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Writes SmartDashboard values only when they change. Used by the Monitor* classes
+ * so values that are checked every cycle do not generate NetworkTables traffic every
+ * cycle. The last value written to each key is shared by all users, so monitors
+ * writing the same key (such as Low Battery) do not repeat each other's writes.
+ */
+final class DashboardCache
+{
+	private static final Map<String, Object>	values = new ConcurrentHashMap<String, Object>();
+
+	private DashboardCache() {}
+
+	/**
+	 * Put a boolean to the SmartDashboard if it is different from the last value put.
+	 * @param key The key.
+	 * @param value The value.
+	 */
+	static void putBoolean(String key, boolean value)
+	{
+		if (!Boolean.valueOf(value).equals(values.put(key, value))) SmartDashboard.putBoolean(key, value);
+	}
+
+	/**
+	 * Put a number to the SmartDashboard if it is different from the last value put.
+	 * @param key The key.
+	 * @param value The value.
+	 */
+	static void putNumber(String key, double value)
+	{
+		if (!Double.valueOf(value).equals(values.put(key, value))) SmartDashboard.putNumber(key, value);
+	}
+}
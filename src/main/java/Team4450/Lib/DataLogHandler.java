@@ -1,8 +1,14 @@
 package Team4450.Lib;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Handler;
 import java.util.logging.LogRecord;
 
+import edu.wpi.first.util.datalog.RawLogEntry;
 import edu.wpi.first.util.datalog.StringLogEntry;
 import edu.wpi.first.wpilibj.DataLogManager;
 
@@ -11,13 +17,40 @@ import edu.wpi.first.wpilibj.DataLogManager;
  * A custom implementation of Java's Log {@link Handler} that allows formatted
  * log entries to be appended to the current {@code DataLog} which will be saved
  * to RoboRio USB drive for later use in AdvantageScope log replay.
+ * <p>
+ * In structured mode the handler does not format records. Each record is written
+ * as a compact binary entry of type {@value #STRUCTURED_TYPE} under the key, and
+ * each call site is written once as text to the key + "/CallSites" entry. Record
+ * layout (little endian):
+ * <pre>
+ * int    level value
+ * long   thread id
+ * int    call site id
+ * long   record time (ms since epoch)
+ * byte   parameter count
+ * params each a type byte and value: 'i' int, 'l' long, 'd' double, 'z' boolean (1 byte),
+ *        's' string (int byte length + UTF-8 bytes)
+ * </pre>
+ * Call site entries are "id|location|format string". The text of a record is
+ * reconstructed by applying the parameters to the call site format string.
  * 
  * @since 4.8.3
  * @author Cole Wilson
  */
 public class DataLogHandler extends Handler {
+    /** DataLog entry type of structured log records. */
+    public static final String STRUCTURED_TYPE = "robotlib.logrecord";
+
     private StringLogEntry dataLogEntry;
 
+    private final boolean structured;
+    private RawLogEntry recordEntry;
+    // Call site ids by call site (or source) and then format string, since one call
+    // site can log with different format strings.
+    private final Map<Object, Map<String, Integer>> callSiteIds = new HashMap<>();
+    private int callSiteCount;
+    private ByteBuffer buffer;
+
     /**
      * Default constructor to create a {@code DataLogHandler} object with the default
      * {@code DataLogEntry} key of "UtilConsoleLog"
@@ -33,23 +66,207 @@ public class DataLogHandler extends Handler {
      * @param key the key to be used when logging to the current {@code DataLog}
      */
     public DataLogHandler(String key) {
-        dataLogEntry = new StringLogEntry(DataLogManager.getLog(), key);
+        this(key, false);
+    }
+
+    /**
+     * Constructor to create a {@code DataLogHandler} object with the specified
+     * {@code DataLogEntry} key that optionally writes structured binary records
+     * instead of formatted text.
+     * 
+     * @param key the key to be used when logging to the current {@code DataLog}
+     * @param structured true to write structured binary records
+     */
+    public DataLogHandler(String key, boolean structured) {
+        this.structured = structured;
+
+        if (structured) {
+            recordEntry = new RawLogEntry(DataLogManager.getLog(), key, "", STRUCTURED_TYPE);
+            dataLogEntry = new StringLogEntry(DataLogManager.getLog(), key + "/CallSites");
+            buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        } else
+            dataLogEntry = new StringLogEntry(DataLogManager.getLog(), key);
+    }
+
+    /**
+     * Returns true if this handler writes structured binary records.
+     * 
+     * @return true if structured
+     */
+    public boolean isStructured() {
+        return structured;
     }
 
     /**
      * Publish the given {@link LogRecord} to the current {@code DataLog} under the
      * pre-specified key in the constructor (or default key of "UtilConsoleLog"). This method
      * will auto-format the record using the formatter specified previously with
-     * {@link DataLogHandler#setFormatter(java.util.logging.Formatter)}.
+     * {@link DataLogHandler#setFormatter(java.util.logging.Formatter)}. In structured
+     * mode the record is not formatted, its raw values are written instead.
      * 
      * @param record the {@code LogRecord} to be published
      */
     @Override
     public void publish(LogRecord record) {
-        dataLogEntry.append(getFormatter().format(record));
+        if (!isLoggable(record)) return;
+
+        if (structured)
+            publishStructured(record);
+        else
+            dataLogEntry.append(getFormatter().format(record));
+    }
+
+    private synchronized void publishStructured(LogRecord record) {
+        buffer.clear();
+
+        if (record instanceof DeferredLogRecord) {
+            DeferredLogRecord r = (DeferredLogRecord) record;
+
+            writeHeader(record, callSiteId(r));
+
+            switch (r.getKind()) {
+                case DeferredLogRecord.INT:
+                    buffer.put((byte) 1);
+                    putInt((int) r.getLongValue());
+                    break;
+
+                case DeferredLogRecord.LONG:
+                    buffer.put((byte) 1);
+                    putLong(r.getLongValue());
+                    break;
+
+                case DeferredLogRecord.DOUBLE:
+                    buffer.put((byte) 1);
+                    putDouble(r.getDoubleValue());
+                    break;
+
+                case DeferredLogRecord.DOUBLE2:
+                    buffer.put((byte) 2);
+                    putDouble(r.getDoubleValue());
+                    putDouble(r.getDoubleValue2());
+                    break;
+
+                case DeferredLogRecord.BOOLEAN:
+                    buffer.put((byte) 1);
+                    putBoolean(r.getLongValue() != 0);
+                    break;
+
+                case DeferredLogRecord.SUPPLIER:
+                    buffer.put((byte) 1);
+                    putString(r.getBody());
+                    break;
+
+                default:
+                    Object[] parms = r.getObjects();
+                    int count = parms == null ? 0 : Math.min(parms.length, 255);
+
+                    buffer.put((byte) count);
+
+                    for (int i = 0; i < count; i++) putObject(parms[i]);
+            }
+        } else {
+            // Plain records are identified by their source and carry their message as text.
+            String source = record.getSourceClassName() + "." + record.getSourceMethodName();
+
+            writeHeader(record, callSiteId(source, source, "%s"));
+
+            buffer.put((byte) 1);
+            putString(record.getMessage());
+        }
+
+        recordEntry.append(buffer.array(), 0, buffer.position());
+    }
+
+    private void writeHeader(LogRecord record, int siteId) {
+        buffer.putInt(record.getLevel().intValue());
+        buffer.putLong(record.getLongThreadID());
+        buffer.putInt(siteId);
+        buffer.putLong(record.getMillis());
+    }
+
+    private int callSiteId(DeferredLogRecord r) {
+        CallSite site = r.getCallSite();
+        String template = r.getKind() == DeferredLogRecord.SUPPLIER ? "%s" : r.getTemplate();
+
+        if (site != null)
+            return callSiteId(site, site.getRawLocation(), template);
+        else
+            return callSiteId(template, "", template);
+    }
+
+    // Look up the id of a call site and format string, writing the call site text
+    // to the DataLog the first time the pair is seen.
+    private int callSiteId(Object key, String location, String template) {
+        Map<String, Integer> templates = callSiteIds.get(key);
+
+        if (templates == null) {
+            templates = new HashMap<>(2);
+            callSiteIds.put(key, templates);
+        }
+
+        Integer id = templates.get(template);
+
+        if (id == null) {
+            id = callSiteCount++;
+            templates.put(template, id);
+            dataLogEntry.append(id + "|" + location + "|" + template);
+        }
+
+        return id;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
     }
-    
-    /** 
+
+    private void putInt(int value) {
+        ensureRoom(5);
+        buffer.put((byte) 'i').putInt(value);
+    }
+
+    private void putLong(long value) {
+        ensureRoom(9);
+        buffer.put((byte) 'l').putLong(value);
+    }
+
+    private void putDouble(double value) {
+        ensureRoom(9);
+        buffer.put((byte) 'd').putDouble(value);
+    }
+
+    private void putBoolean(boolean value) {
+        ensureRoom(2);
+        buffer.put((byte) 'z').put((byte) (value ? 1 : 0));
+    }
+
+    private void putString(String value) {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+
+        ensureRoom(5 + bytes.length);
+        buffer.put((byte) 's').putInt(bytes.length).put(bytes);
+    }
+
+    private void putObject(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            putInt(((Number) value).intValue());
+        else if (value instanceof Long)
+            putLong((Long) value);
+        else if (value instanceof Double || value instanceof Float)
+            putDouble(((Number) value).doubleValue());
+        else if (value instanceof Boolean)
+            putBoolean((Boolean) value);
+        else
+            putString(String.valueOf(value));
+    }
+
+    /**
      * Does nothing, as the {@code DataLog} object does not need to be closed,
      * but still must be defined.
      */
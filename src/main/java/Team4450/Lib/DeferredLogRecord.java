@@ -0,0 +1,214 @@
+package Team4450.Lib;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log record that holds the message format string and raw argument values and
+ * only formats the message text the first time a handler asks for it. A record
+ * that every handler drops is never formatted. Primitive arguments are stored
+ * unboxed until formatting.
+ * <p>
+ * Handlers may format the record later, on another thread, so object arguments
+ * must not change after the logging call. Strings, boxed primitives, enums and
+ * nulls are held as is. A record with any other argument (an array, a collection,
+ * a robot object with a toString()) is formatted when it is created, so it logs
+ * the values at the time of the call. The argument array itself is held, callers
+ * must not reuse it.
+ */
+final class DeferredLogRecord extends LogRecord
+{
+    private static final long serialVersionUID = 1L;
+
+    static final int    OBJECTS = 0, INT = 1, LONG = 2, DOUBLE = 3, BOOLEAN = 4, DOUBLE2 = 5, SUPPLIER = 6;
+
+    private final transient CallSite            site;
+    private final String                        stripMarker;
+    private final int                           kind;
+    private final long                          longValue;
+    private final double                        doubleValue, doubleValue2;
+    private final transient Object[]            objects;
+    private final transient Supplier<String>    supplier;
+    private volatile String                     formatted, body;
+
+    private DeferredLogRecord(Level level, CallSite site, String stripMarker, String template, int kind,
+                              long longValue, double doubleValue, double doubleValue2, Object[] objects,
+                              Supplier<String> supplier)
+    {
+        super(level, template);
+
+        this.site = site;
+        this.stripMarker = stripMarker;
+        this.kind = kind;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.doubleValue2 = doubleValue2;
+        this.objects = objects;
+        this.supplier = supplier;
+
+        // We already know where the call came from, so setting these keeps LogRecord
+        // from walking the stack to infer the caller.
+
+        if (site != null)
+        {
+            setSourceClassName(site.className);
+            setSourceMethodName(site.methodName);
+        }
+        else
+            setSourceClassName(null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, Object[] parms)
+    {
+        DeferredLogRecord record = new DeferredLogRecord(level, site, stripMarker, template, OBJECTS, 0, 0, 0, parms, null);
+
+        if (!isImmutable(parms)) record.body = record.formatBody();
+
+        return record;
+    }
+
+    // Returns true if none of the arguments can change between the logging call
+    // and the record being formatted.
+    private static boolean isImmutable(Object[] parms)
+    {
+        if (parms == null) return true;
+
+        for (Object parm : parms)
+        {
+            if (parm == null || parm instanceof String || parm instanceof Integer || parm instanceof Long ||
+                parm instanceof Double || parm instanceof Boolean || parm instanceof Float ||
+                parm instanceof Short || parm instanceof Byte || parm instanceof Character ||
+                parm instanceof Enum || parm instanceof BigDecimal || parm instanceof BigInteger)
+                continue;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, int value)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, template, INT, value, 0, 0, null, null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, long value)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, template, LONG, value, 0, 0, null, null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, double value)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, template, DOUBLE, 0, value, 0, null, null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, double value1, double value2)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, template, DOUBLE2, 0, value1, value2, null, null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, String template, boolean value)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, template, BOOLEAN, value ? 1 : 0, 0, 0, null, null);
+    }
+
+    static DeferredLogRecord of(Level level, CallSite site, String stripMarker, Supplier<String> supplier)
+    {
+        return new DeferredLogRecord(level, site, stripMarker, null, SUPPLIER, 0, 0, 0, null, supplier);
+    }
+
+    /** Returns the call site of the logging call, null if location capture was off. */
+    CallSite getCallSite() { return site; }
+
+    /** Returns the location text of the call site, null if location capture was off. */
+    String getLocation() { return site != null ? site.getLocation(stripMarker) : null; }
+
+    /** Returns the message format string, null for a supplied message. */
+    String getTemplate() { return super.getMessage(); }
+
+    /** Returns which kind of argument values the record holds. */
+    int getKind() { return kind; }
+
+    /** Returns the int, long or boolean (1/0) argument value. */
+    long getLongValue() { return longValue; }
+
+    /** Returns the first double argument value. */
+    double getDoubleValue() { return doubleValue; }
+
+    /** Returns the second double argument value. */
+    double getDoubleValue2() { return doubleValue2; }
+
+    /** Returns the object argument values. */
+    Object[] getObjects() { return objects; }
+
+    /** Returns true if the message has been formatted. */
+    boolean isFormatted() { return body != null; }
+
+    /**
+     * Returns the formatted message, formatting it on the first call.
+     */
+    @Override
+    public String getMessage()
+    {
+        String text = formatted;
+
+        if (text == null)
+        {
+            String body = getBody();
+
+            if (site != null)
+                text = site.getLocation(stripMarker) + ": " + body + "\r";
+            else
+                text = body + "\r";
+
+            formatted = text;
+        }
+
+        return text;
+    }
+
+    /**
+     * Returns the formatted message without the location prefix and trailing
+     * return, formatting it on the first call. A supplier is only called once.
+     */
+    String getBody()
+    {
+        String text = body;
+
+        if (text == null) body = text = formatBody();
+
+        return text;
+    }
+
+    private String formatBody()
+    {
+        String template = super.getMessage();
+
+        switch (kind)
+        {
+            case INT:
+                return String.format(template, (int) longValue);
+
+            case LONG:
+                return String.format(template, longValue);
+
+            case DOUBLE:
+                return String.format(template, doubleValue);
+
+            case DOUBLE2:
+                return String.format(template, doubleValue, doubleValue2);
+
+            case BOOLEAN:
+                return String.format(template, longValue != 0);
+
+            case SUPPLIER:
+                return String.valueOf(supplier.get());
+
+            default:
+                return String.format(template, objects);
+        }
+    }
+}
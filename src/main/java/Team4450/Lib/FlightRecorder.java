@@ -0,0 +1,500 @@
+package Team4450.Lib;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that keeps the most recent log records in an off-heap circular
+ * byte buffer instead of writing them to disk. When the buffer is full the
+ * oldest records are overwritten. The buffer contents are written to a disk file
+ * only when something calls for a dump, such as an exception logged by
+ * Util.logException(), a brownout seen by the power monitors or an explicit call
+ * to Util.dumpFlightRecorder(). This gives full detail logging around failures
+ * without the disk cost of writing every verbose record during a match.
+ * <p>
+ * Records are stored as time, thread id, level, location, message format string
+ * and argument values, encoded straight into the buffer without formatting the
+ * message or allocating a copy of it. Argument values are copied when the record
+ * is stored, so later changes to mutable arguments are not seen. Messages are
+ * formatted, and then formatted with this handler's formatter, only when dumped,
+ * on a separate thread. Records larger than 16KB are truncated.
+ */
+public class FlightRecorder extends Handler
+{
+	private static final int			headerSize = 24;
+	private static final long			minDumpInterval = 2000;	// ms.
+	private static final int			maxRecordSize = 16384;
+
+	// Record flags and argument type tags.
+	private static final byte			DEFERRED = 1, TRUNCATED = 2;
+	private static final byte			NULL = 0, INT = 1, LONG = 2, DOUBLE = 3, FLOAT = 4, BOOLEAN = 5,
+										CHAR = 6, STRING = 7;
+
+	/**
+	 * Static reference to the flight recorder created by Util.CustomLogger.setup()
+	 * when the flight recorder is enabled. Null if not enabled.
+	 */
+	public static FlightRecorder		INSTANCE;
+
+	private final ByteBuffer			ring;
+	private final int					capacity;
+	private final String				dumpFile;
+	private final byte[]				header = new byte[headerSize];
+	private final ByteBuffer			headerBuffer = ByteBuffer.wrap(header);
+	private final ByteBuffer			scratch;
+	private final CharsetEncoder		encoder = StandardCharsets.UTF_8.newEncoder()
+											.onMalformedInput(CodingErrorAction.REPLACE)
+											.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private boolean						truncated;
+	private int							head, tail, used, count;
+	private long						lastDumpTime;
+	private ExecutorService				dumpExecutor;
+
+	/**
+	 * Create a flight recorder.
+	 * @param capacity Size in bytes of the record buffer.
+	 * @param dumpFile Path of the file dumps are appended to.
+	 */
+	public FlightRecorder(int capacity, String dumpFile)
+	{
+		if (capacity < 1024) throw new IllegalArgumentException("capacity must be at least 1024 bytes");
+
+		this.capacity = capacity;
+		this.dumpFile = dumpFile;
+
+		ring = ByteBuffer.allocateDirect(capacity);
+		scratch = ByteBuffer.allocate(Math.min(capacity, maxRecordSize));
+
+		setLevel(Level.ALL);
+	}
+
+	/**
+	 * Store a log record in the buffer, overwriting the oldest records if needed.
+	 * @param record The log record.
+	 */
+	@Override
+	public void publish(LogRecord record)
+	{
+		if (!isLoggable(record)) return;
+
+		synchronized (this)
+		{
+			encode(record);
+
+			int length = scratch.position();
+
+			while (capacity - used < length) discardOldest();
+
+			scratch.putInt(0, length);
+
+			put(scratch.array(), length);
+
+			used += length;
+			count++;
+		}
+	}
+
+	// Encode a record into the scratch buffer: header, flags, location, format
+	// string and arguments. Deferred records are encoded from their raw values,
+	// plain records from their unformatted message.
+	private void encode(LogRecord record)
+	{
+		scratch.clear();
+		truncated = false;
+
+		scratch.putInt(0);
+		scratch.putLong(record.getMillis());
+		scratch.putLong(record.getLongThreadID());
+		scratch.putInt(record.getLevel().intValue());
+
+		int flagsAt = scratch.position();
+
+		scratch.put((byte) 0);
+
+		if (record instanceof DeferredLogRecord)
+		{
+			DeferredLogRecord	r = (DeferredLogRecord) record;
+			CallSite			site = r.getCallSite();
+
+			putString(site != null ? r.getLocation() : "");
+
+			if (r.getKind() == DeferredLogRecord.SUPPLIER)
+			{
+				putString("%s");
+				putTextArg(r.getBody());
+			}
+			else
+			{
+				putString(r.getTemplate());
+
+				// Primitive values are written directly, without boxing.
+				switch (r.getKind())
+				{
+					case DeferredLogRecord.INT:
+						if (room(6)) scratch.put((byte) 1).put(INT).putInt((int) r.getLongValue());
+						break;
+
+					case DeferredLogRecord.LONG:
+						if (room(10)) scratch.put((byte) 1).put(LONG).putLong(r.getLongValue());
+						break;
+
+					case DeferredLogRecord.DOUBLE:
+						if (room(10)) scratch.put((byte) 1).put(DOUBLE).putDouble(r.getDoubleValue());
+						break;
+
+					case DeferredLogRecord.DOUBLE2:
+						if (room(19))
+							scratch.put((byte) 2).put(DOUBLE).putDouble(r.getDoubleValue())
+								   .put(DOUBLE).putDouble(r.getDoubleValue2());
+						break;
+
+					case DeferredLogRecord.BOOLEAN:
+						if (room(3)) scratch.put((byte) 1).put(BOOLEAN).put((byte) r.getLongValue());
+						break;
+
+					default:
+						Object[] parms = r.getObjects();
+
+						putArgs(parms, parms == null ? 0 : Math.min(parms.length, 255));
+				}
+			}
+
+			scratch.put(flagsAt, (byte) (DEFERRED | (truncated ? TRUNCATED : 0)));
+		}
+		else
+		{
+			String message = record.getMessage();
+
+			putString("");
+			putString("%s");
+			putTextArg(message == null ? "" : message);
+
+			if (truncated) scratch.put(flagsAt, TRUNCATED);
+		}
+	}
+
+	// Encode a single text argument.
+	private void putTextArg(String text)
+	{
+		if (!room(2)) return;
+
+		scratch.put((byte) 1).put(STRING);
+
+		putString(text);
+	}
+
+	private void putArgs(Object[] args, int count)
+	{
+		if (!room(1)) return;
+
+		int countAt = scratch.position(), written = 0;
+
+		scratch.put((byte) 0);
+
+		for (int i = 0; i < count && putArg(args[i]); i++) written++;
+
+		scratch.put(countAt, (byte) written);
+	}
+
+	// Encode one argument with its type tag. Types other than strings, primitives
+	// and their wrappers are stored as their toString() text.
+	private boolean putArg(Object arg)
+	{
+		if (!room(9)) return false;
+
+		if (arg == null)
+			scratch.put(NULL);
+		else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte)
+			scratch.put(INT).putInt(((Number) arg).intValue());
+		else if (arg instanceof Long)
+			scratch.put(LONG).putLong((Long) arg);
+		else if (arg instanceof Double)
+			scratch.put(DOUBLE).putDouble((Double) arg);
+		else if (arg instanceof Float)
+			scratch.put(FLOAT).putFloat((Float) arg);
+		else if (arg instanceof Boolean)
+			scratch.put(BOOLEAN).put((byte) ((Boolean) arg ? 1 : 0));
+		else if (arg instanceof Character)
+			scratch.put(CHAR).putChar((Character) arg);
+		else
+		{
+			scratch.put(STRING);
+			putString(arg instanceof CharSequence ? (CharSequence) arg : String.valueOf(arg));
+		}
+
+		return !truncated;
+	}
+
+	// Encode text as a length and UTF-8 bytes, truncating it if the record is full.
+	private void putString(CharSequence text)
+	{
+		if (!room(4)) return;
+
+		int lengthAt = scratch.position();
+
+		scratch.putInt(0);
+
+		// ASCII text, the usual case, is copied a byte per char without the encoder.
+		int n = text.length(), i = 0, start = scratch.position();
+
+		if (scratch.remaining() >= n)
+		{
+			byte[] bytes = scratch.array();
+
+			while (i < n && text.charAt(i) < 0x80) { bytes[start + i] = (byte) text.charAt(i); i++; }
+
+			if (i == n)
+			{
+				scratch.position(start + n);
+				scratch.putInt(lengthAt, n);
+
+				return;
+			}
+		}
+
+		encoder.reset();
+
+		CoderResult result = encoder.encode(CharBuffer.wrap(text), scratch, true);
+
+		if (result.isOverflow())
+			truncated = true;
+		else
+			encoder.flush(scratch);
+
+		scratch.putInt(lengthAt, scratch.position() - lengthAt - 4);
+	}
+
+	// Returns false, and marks the record truncated, if the scratch buffer does
+	// not have room for the bytes.
+	private boolean room(int bytes)
+	{
+		if (scratch.remaining() < bytes) truncated = true;
+
+		return !truncated;
+	}
+
+	/**
+	 * Returns the number of records in the buffer.
+	 * @return Record count.
+	 */
+	public synchronized int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Discard all records in the buffer.
+	 */
+	public synchronized void clear()
+	{
+		head = tail = used = count = 0;
+	}
+
+	/**
+	 * Write the buffered records to the dump file and clear the buffer. The
+	 * records are copied out of the buffer on the calling thread and written
+	 * to disk on a separate thread. Dumps requested within 2 seconds of the
+	 * last dump are ignored.
+	 * @param reason Reason for the dump, written ahead of the records.
+	 */
+	public void dump(String reason)
+	{
+		dump(() -> reason);
+	}
+
+	/**
+	 * Write the buffered records to the dump file and clear the buffer. Same as
+	 * dump(String) but the reason is only built if the dump is done.
+	 * @param reason Supplies the reason for the dump, written ahead of the records.
+	 */
+	public void dump(Supplier<String> reason)
+	{
+		final byte[]	snapshot;
+		final int		records;
+
+		synchronized (this)
+		{
+			long now = System.currentTimeMillis();
+
+			if (count == 0 || now - lastDumpTime < minDumpInterval) return;
+
+			lastDumpTime = now;
+
+			snapshot = new byte[used];
+			records = count;
+
+			int first = Math.min(used, capacity - head);
+
+			ring.get(head, snapshot, 0, first);
+
+			if (first < used) ring.get(0, snapshot, first, used - first);
+
+			clear();
+
+			if (dumpExecutor == null)
+				dumpExecutor = Executors.newSingleThreadExecutor(r -> {
+					Thread t = new Thread(r, "FlightRecorderDump");
+					t.setDaemon(true);
+					return t;
+				});
+		}
+
+		String text = reason.get();
+
+		dumpExecutor.execute(() -> writeDump(text, snapshot, records));
+	}
+
+	// Decode the records in a snapshot and append them to the dump file.
+	private void writeDump(String reason, byte[] snapshot, int records)
+	{
+		ByteBuffer	in = ByteBuffer.wrap(snapshot);
+
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(dumpFile, true), StandardCharsets.UTF_8))
+		{
+			out.write(String.format("----- flight recorder dump: %s (%d records) -----\n", reason, records));
+
+			while (in.remaining() >= headerSize)
+			{
+				int		start = in.position();
+				int		length = in.getInt();
+				long	millis = in.getLong();
+				long	threadId = in.getLong();
+				int		level = in.getInt();
+				String	message = decode(ByteBuffer.wrap(snapshot, start + headerSize, length - headerSize).slice());
+
+				LogRecord r = new LogRecord(Level.parse(Integer.toString(level)), message);
+
+				r.setMillis(millis);
+				r.setLongThreadID(threadId);
+
+				out.write(getFormatter() != null ? getFormatter().format(r) : message + "\n");
+
+				in.position(start + length);
+			}
+
+			out.write("----- end of dump -----\n");
+		}
+		catch (IOException e) { reportError(null, e, ErrorManager.WRITE_FAILURE); }
+	}
+
+	// Decode the location, format string and arguments of a record and format
+	// its message as the logging call would have.
+	private static String decode(ByteBuffer in)
+	{
+		byte		flags = in.get();
+		String		location = "", template = "%s";
+		Object[]	args = new Object[0];
+		String		body;
+
+		// A truncated record can end part way through, keep what was read.
+		try
+		{
+			location = getString(in);
+			template = getString(in);
+			args = new Object[in.get() & 0xff];
+
+			for (int i = 0; i < args.length; i++)
+			{
+				switch (in.get())
+				{
+					case INT: args[i] = in.getInt(); break;
+					case LONG: args[i] = in.getLong(); break;
+					case DOUBLE: args[i] = in.getDouble(); break;
+					case FLOAT: args[i] = in.getFloat(); break;
+					case BOOLEAN: args[i] = in.get() != 0; break;
+					case CHAR: args[i] = in.getChar(); break;
+					case STRING: args[i] = getString(in); break;
+					default: args[i] = null;
+				}
+			}
+		}
+		catch (BufferUnderflowException e) {}
+
+		try
+		{
+			body = String.format(template, args);
+		}
+		catch (IllegalFormatException e)
+		{
+			// Truncated or converted arguments may no longer match the format.
+			body = template + " " + Arrays.toString(args);
+		}
+
+		if ((flags & TRUNCATED) != 0) body += "...";
+
+		if ((flags & DEFERRED) == 0) return body;
+
+		return (location.isEmpty() ? "" : location + ": ") + body + "\r";
+	}
+
+	private static String getString(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getInt()];
+
+		in.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void discardOldest()
+	{
+		headerBuffer.clear();
+
+		int first = Math.min(4, capacity - head);
+
+		ring.get(head, header, 0, first);
+
+		if (first < 4) ring.get(0, header, first, 4 - first);
+
+		int length = headerBuffer.getInt(0);
+
+		head = (head + length) % capacity;
+		used -= length;
+		count--;
+	}
+
+	// Copy bytes into the ring at the tail, wrapping at the end.
+	private void put(byte[] src, int length)
+	{
+		int first = Math.min(length, capacity - tail);
+
+		ring.put(tail, src, 0, first);
+
+		if (first < length) ring.put(0, src, first, length - first);
+
+		tail = (tail + length) % capacity;
+	}
+
+	/**
+	 * Does nothing, records are only written to disk by dump().
+	 */
+	@Override
+	public void flush() {}
+
+	/**
+	 * Stops the dump thread.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (dumpExecutor != null) dumpExecutor.shutdown();
+	}
+}
@@ -1,30 +1,129 @@
 package Team4450.Lib;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
 
-import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.sendable.Sendable;
+import edu.wpi.first.util.sendable.SendableBuilder;
+import edu.wpi.first.wpilibj.DataLogManager;
 
 /**
  * A class used to record the time spent in functions to identify long running
  * functions. Call enterFunction() at start of a function and exitFunction()
  * at the end of the function. Will track total time spent in all the functions
- * where these calls are made until the list of functions is printed and reset
- * by printFunctions(). Use the INSTANCE member instead of getting a reference
- * variable: FunctionTimer.INSTANCE.enterFunction()
+ * where these calls are made until the list of functions is printed by
+ * printFunctions() or reset by reset(). Use the INSTANCE member instead of getting
+ * a reference variable: FunctionTracer.INSTANCE.enterFunction()
+ * <p>
+ * Each thread has its own call stack, so nested, recursive and concurrent calls
+ * to the same function are timed correctly. exitFunction() exits the innermost
+ * call of the function, and any functions entered after it whose exit was skipped
+ * (such as by an exception). The stack is limited to MAX_DEPTH functions, if exits
+ * are skipped until it is exceeded the stack is cleared and a warning logged.
+ * For each function and thread the
+ * tracer records total time (wall time from enter to exit, counted once for
+ * recursive calls), self time (total time less time spent in traced functions
+ * it called) and the number of calls. Function names are interned to integer ids.
+ * Code that traces hot paths can get the id once with getFunctionId() and call
+ * the id versions of enter and exit, which only do array writes.
+ * <p>
+ * When latency histograms are turned on with setLatencyHistograms(), the time of
+ * every call is also recorded in a {@link LatencyHistogram} for the function, across
+ * all threads. Histogram statistics accumulate until reset() and are reported by
+ * printFunctions(), by this class as a Sendable and by logLatency() to the DataLog.
+ * <p>
+ * The tracer can also watch a periodic loop for overruns. Set a time budget with
+ * setLoopBudget() and call loopBoundary() once per loop iteration, at the same
+ * place each time. When an iteration takes longer than the budget the time spent
+ * in each function traced on the loop thread during that iteration is logged.
+ * The loop time and overrun count are published by the {@link MetricsRegistry}.
+ * <p>
+ * scope() enters a function and returns a {@link Scope} that exits it when closed,
+ * for use with try-with-resources so the exit happens on every path:
+ * <pre>
+ * try (FunctionTracer.Scope s = FunctionTracer.INSTANCE.scope(DRIVE_ID)) { ... }
+ * </pre>
+ * Scope objects are preallocated per thread and reused. Tracing can be turned off
+ * with setEnabled(), or compiled out by starting the JVM with
+ * -DTeam4450.Lib.FunctionTracer.disabled=true, which makes ENABLED a false
+ * constant that the JIT uses to remove the tracing calls.
+ * <p>
+ * For a timeline of all threads, startEventRecording() has each thread record its
+ * function enter and exit events in a preallocated ring buffer, keeping the most
+ * recent events. writeChromeTrace() writes the recorded events to a Chrome Trace
+ * Event format JSON file that can be opened in the Perfetto UI (ui.perfetto.dev)
+ * or chrome://tracing.
+ * <p>
+ * The state of a thread that has ended is dropped the next time a new thread
+ * starts tracing or the functions are printed. Its statistics not yet printed are
+ * kept and printed once with the thread shown as &lt;ended&gt;. Its recorded events are
+ * kept while event recording continues.
  */
-public class FunctionTracer 
+public class FunctionTracer implements Sendable
 {
+    /**
+     * False if tracing was disabled at JVM start with the system property
+     * Team4450.Lib.FunctionTracer.disabled=true. All tracing methods then return
+     * immediately.
+     */
+    public static final boolean ENABLED = !Boolean.getBoolean("Team4450.Lib.FunctionTracer.disabled");
+
     // Singleton class pattern single instance.
     public static final FunctionTracer INSTANCE = new FunctionTracer();
 
-    private final Map<String, FunctionMarker> functions = new ConcurrentHashMap<>();
+    // Returned by scope() when tracing is off.
+    private final Scope                     noScope = new Scope(this);
+
+    // Per function statistics, stored in the stats array at id * FIELDS + field.
+    private static final int    TOTAL = 0, SELF = 1, CALLS = 2, FIELDS = 3;
+
+    /**
+     * Maximum call stack depth of a thread. Deeper stacks are assumed to be exits
+     * skipped without try-with-resources and are cleared.
+     */
+    public static final int     MAX_DEPTH = 256;
+
+    private final Map<String, Integer>      ids = new ConcurrentHashMap<>();
+    private volatile String[]               names = new String[16];
+    private int                             functionCount;
+
+    private final Queue<ThreadState>        threads = new ConcurrentLinkedQueue<>();
+    private long[]                          retired = new long[0];
+    private final ThreadLocal<ThreadState>  threadState = ThreadLocal.withInitial(this::newThreadState);
+    private volatile int                    epoch;
+
+    private volatile boolean                histogramsEnabled;
+    private volatile LatencyHistogram[]     histograms = new LatencyHistogram[16];
+    private DoubleArrayLogEntry[]           latencyEntries = new DoubleArrayLogEntry[16];
+
+    private volatile long                   loopBudget;
+    private volatile int                    loopSampleRate = 1;
+    private volatile long                   overruns;
+    private MetricsRegistry.Timer           loopTimer;
+
+    private volatile boolean                enabled = true;
+
+    private volatile int                    eventCapacity, eventGeneration;
+    private volatile long                   eventBase;
 
-    //private final Map<String, FunctionMarker> functions = Collections.synchronizedMap(new HashMap<>());
-    
     private FunctionTracer() {}
 
     /**
@@ -33,21 +132,273 @@ public class FunctionTracer
      */
     public FunctionTracer getInstance() { return INSTANCE; }
 
-    private class FunctionMarker
+    // Call stack and statistics of one thread. Only the owning thread writes the
+    // stack and statistics, printFunctions() reads the statistics.
+    private static final class ThreadState
     {
-        public long		cumulative, start;
-        public long		threadId;
-        public boolean	exitFlag;
+        final long          threadId;
+        final String        threadName;
+        final WeakReference<Thread> owner;
+        volatile int        epoch;
+
+        int                 depth;
+        int[]               stackIds = new int[32];
+        long[]              stackStart = new long[32], stackChild = new long[32];
+        boolean             overflowLogged;
+        int[]               active = new int[16];
+        Scope[]             scopes = new Scope[32];
+
+        // Event ring, null when not recording. Event codes are id * 2 for enter and
+        // id * 2 + 1 for exit. eventCount is the total number of events recorded.
+        long[]              eventTimes;
+        int[]               eventCodes;
+        int                 eventGeneration;
+        volatile long       eventCount;
+
+        volatile AtomicLongArray    stats = new AtomicLongArray(16 * FIELDS);
 
-        public FunctionMarker(long startTime, long cumulativeTime)
+        // Statistics as of the last printFunctions(), used only by printFunctions().
+        long[]              printed = new long[0];
+
+        // Per function times of the current loop iteration, null if this is not
+        // a loop thread. touched holds the ids of the functions called.
+        long[]              loopTotal, loopSelf;
+        int[]               loopCalls, touched;
+        int                 touchedCount;
+        long                loopStart;
+
+        ThreadState(int epoch)
         {
-            start = startTime;
-            cumulative = cumulativeTime;
-            
             threadId = Thread.currentThread().getId();
+            threadName = Thread.currentThread().getName();
+            owner = new WeakReference<>(Thread.currentThread());
+            this.epoch = epoch;
+        }
+
+        boolean isAlive()
+        {
+            Thread thread = owner.get();
+
+            return thread != null && thread.isAlive();
+        }
+
+        void push(int id, long now)
+        {
+            if (depth == stackIds.length)
+            {
+                stackIds = Arrays.copyOf(stackIds, depth * 2);
+                stackStart = Arrays.copyOf(stackStart, depth * 2);
+                stackChild = Arrays.copyOf(stackChild, depth * 2);
+            }
+
+            if (id >= active.length)
+            {
+                int size = Math.max(id + 1, active.length * 2);
+
+                active = Arrays.copyOf(active, size);
+
+                if (loopCalls != null) growLoop(size);
+
+                AtomicLongArray oldStats = stats, newStats = new AtomicLongArray(size * FIELDS);
+
+                for (int i = 0; i < oldStats.length(); i++) newStats.lazySet(i, oldStats.get(i));
+
+                stats = newStats;
+            }
+
+            stackIds[depth] = id;
+            stackStart[depth] = now;
+            stackChild[depth] = 0;
+            depth++;
+            active[id]++;
+        }
+
+        // Pop the top of the stack and return its elapsed time. The function id
+        // is left at stackIds[depth].
+        long pop(long now)
+        {
+            depth--;
+
+            int     id = stackIds[depth];
+            long    elapsed = now - stackStart[depth];
+
+            if (depth > 0) stackChild[depth - 1] += elapsed;
+
+            AtomicLongArray s = stats;
+
+            // Only the outermost of recursive calls counts toward total time.
+            if (--active[id] == 0) add(s, id * FIELDS + TOTAL, elapsed);
+
+            long self = elapsed - stackChild[depth];
+
+            add(s, id * FIELDS + SELF, self);
+            add(s, id * FIELDS + CALLS, 1);
+
+            if (loopCalls != null)
+            {
+                if (loopCalls[id]++ == 0) touched[touchedCount++] = id;
+
+                if (active[id] == 0) loopTotal[id] += elapsed;
+
+                loopSelf[id] += self;
+            }
+
+            return elapsed;
+        }
+
+        // Start a new reset epoch. The stack is kept so calls in progress are still
+        // matched by their exits.
+        void clear(int newEpoch)
+        {
+            stats = new AtomicLongArray(active.length * FIELDS);
+            epoch = newEpoch;
+        }
+
+        void recordEvent(long time, int code)
+        {
+            long    count = eventCount;
+            int     i = (int) (count % eventTimes.length);
+
+            eventTimes[i] = time;
+            eventCodes[i] = code;
+            eventCount = count + 1;
+        }
+
+        void growLoop(int size)
+        {
+            loopTotal = loopTotal == null ? new long[size] : Arrays.copyOf(loopTotal, size);
+            loopSelf = loopSelf == null ? new long[size] : Arrays.copyOf(loopSelf, size);
+            loopCalls = loopCalls == null ? new int[size] : Arrays.copyOf(loopCalls, size);
+            touched = touched == null ? new int[size] : Arrays.copyOf(touched, size);
+        }
+
+        // Clear the times of the current loop iteration.
+        void clearLoop()
+        {
+            for (int i = 0; i < touchedCount; i++)
+            {
+                int id = touched[i];
+
+                loopTotal[id] = loopSelf[id] = loopCalls[id] = 0;
+            }
+
+            touchedCount = 0;
+        }
+
+        private static void add(AtomicLongArray s, int i, long value)
+        {
+            s.lazySet(i, s.get(i) + value);
         }
     }
 
+    /**
+     * Exits its function when closed. Get with scope().
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final FunctionTracer    tracer;
+        private int                     id = -1;
+
+        private Scope(FunctionTracer tracer)
+        {
+            this.tracer = tracer;
+        }
+
+        /**
+         * Exit the function entered by scope().
+         */
+        @Override
+        public void close()
+        {
+            if (id >= 0)
+            {
+                tracer.exitFunction(id);
+
+                id = -1;
+            }
+        }
+    }
+
+    private ThreadState newThreadState()
+    {
+        ThreadState state = new ThreadState(epoch);
+
+        pruneThreads();
+
+        threads.add(state);
+
+        return state;
+    }
+
+    // Drop the state of threads that have ended, adding their statistics not yet
+    // printed to the retired totals. Threads with events recorded in the current
+    // recording are kept until recording stops or restarts.
+    private synchronized void pruneThreads()
+    {
+        for (Iterator<ThreadState> it = threads.iterator(); it.hasNext(); )
+        {
+            ThreadState state = it.next();
+
+            if (state.isAlive()) continue;
+
+            if (eventCapacity > 0 && state.eventTimes != null && state.eventGeneration == eventGeneration) continue;
+
+            if (state.epoch == epoch)
+            {
+                AtomicLongArray s = state.stats;
+                long[]          printed = state.printed;
+
+                if (retired.length < s.length()) retired = Arrays.copyOf(retired, s.length());
+
+                for (int i = 0; i < s.length(); i++)
+                    retired[i] += s.get(i) - (i < printed.length ? printed[i] : 0);
+            }
+
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the integer id of a function name, assigning a new id the first
+     * time a name is seen.
+     * @param name The function name.
+     * @return The function id.
+     */
+    public int getFunctionId(String name)
+    {
+        Integer id = ids.get(name);
+
+        if (id != null) return id;
+
+        synchronized (this)
+        {
+            id = ids.get(name);
+
+            if (id == null)
+            {
+                id = functionCount++;
+
+                if (id == names.length) names = Arrays.copyOf(names, id * 2);
+
+                names[id] = name;
+
+                ids.put(name, id);
+            }
+
+            return id;
+        }
+    }
+
+    /**
+     * Returns the name of a function id.
+     * @param id The function id.
+     * @return The function name.
+     */
+    public String getFunctionName(int id)
+    {
+        return names[id];
+    }
+
     /**
      * Call as the first statement in a function to prime the tracking of the
      * time spent in the function.
@@ -55,19 +406,106 @@ public class FunctionTracer
      */
     public void enterFunction(String name)
     {
-        long now = RobotController.getFPGATime();
+        if (!ENABLED || !enabled) return;
+
+        enterFunction(getFunctionId(name));
+    }
+
+    /**
+     * Call as the first statement in a function to prime the tracking of the
+     * time spent in the function.
+     * @param id The function id from getFunctionId().
+     */
+    public void enterFunction(int id)
+    {
+        if (!ENABLED || !enabled) return;
 
-        FunctionMarker marker = functions.get(name);
+        enter(threadState.get(), id);
+    }
+
+    private void enter(ThreadState state, int id)
+    {
+        long now = System.nanoTime();
 
-        if  (marker == null)
-            marker = new FunctionMarker(now, 0);
-        else
+        if (state.epoch != epoch) state.clear(epoch);
+
+        // A function on the stack may be a recursive call or one whose exit was
+        // skipped, there is no telling them apart here. Frames with skipped exits are
+        // unwound when an enclosing function exits, or by this limit if none does.
+        if (state.depth >= MAX_DEPTH)
         {
-            marker.start = now;
-            marker.exitFlag = false;
+            if (!state.overflowLogged)
+                Util.consoleLog(Level.WARNING, "function stack over %d on thread %s, exits skipped? stack cleared",
+                                MAX_DEPTH, state.threadName);
+
+            state.overflowLogged = true;
+
+            unwind(state, 0, now);
         }
-        
-        functions.put(name, marker);
+
+        state.push(id, now);
+
+        if (eventCapacity > 0) recordEvent(state, now, id * 2);
+    }
+
+    /**
+     * Enter a function and return a scope that exits the function when closed.
+     * Use with try-with-resources.
+     * @param id The function id from getFunctionId().
+     * @return The scope, reused by later scopes at the same call depth.
+     */
+    public Scope scope(int id)
+    {
+        if (!ENABLED || !enabled) return noScope;
+
+        ThreadState state = threadState.get();
+
+        enter(state, id);
+
+        // The scope is picked after entering since entering may clear the stack.
+        int depth = state.depth - 1;
+
+        if (depth >= state.scopes.length) state.scopes = Arrays.copyOf(state.scopes, state.scopes.length * 2);
+
+        Scope scope = state.scopes[depth];
+
+        if (scope == null) scope = state.scopes[depth] = new Scope(this);
+
+        scope.id = id;
+
+        return scope;
+    }
+
+    /**
+     * Enter a function and return a scope that exits the function when closed.
+     * Use with try-with-resources.
+     * @param name The function name.
+     * @return The scope, reused by later scopes at the same call depth.
+     */
+    public Scope scope(String name)
+    {
+        if (!ENABLED || !enabled) return noScope;
+
+        return scope(getFunctionId(name));
+    }
+
+    /**
+     * Turn tracing on or off at runtime. Defaults to on. Functions entered while
+     * tracing was on are still exited after it is turned off.
+     * @param enabled True to trace.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns true if tracing is on.
+     * @return True if on.
+     */
+    public boolean isEnabled()
+    {
+        return ENABLED && enabled;
     }
 
     /**
@@ -77,50 +515,411 @@ public class FunctionTracer
      */
     public void exitFunction(String name)
     {
-        long now = RobotController.getFPGATime();
+        if (!ENABLED) return;
+
+        Integer id = ids.get(name);
+
+        if (id != null) exitFunction((int) id);
+    }
+
+    /**
+     * Call as the last statement in a function to record the time spent
+     * in the function. Functions entered after this one that were not exited,
+     * such as when an exception skipped their exitFunction() calls, are exited
+     * at the same time.
+     * @param id The function id used on enterFunction().
+     */
+    public void exitFunction(int id)
+    {
+        if (!ENABLED) return;
+
+        long        now = System.nanoTime();
+        ThreadState state = threadState.get();
+
+        if (state.epoch != epoch) state.clear(epoch);
+
+        int i = state.depth - 1;
 
-        FunctionMarker marker = functions.get(name);
+        while (i >= 0 && state.stackIds[i] != id) i--;
 
-        if  (marker == null)
-        	return;
-        else
+        if (i >= 0) unwind(state, i, now);
+    }
+
+    // Exit the functions on the stack down to and including index i.
+    private void unwind(ThreadState state, int i, long now)
+    {
+        while (state.depth > i)
         {
-            marker.cumulative += now - marker.start;
-            marker.exitFlag = true;
+            long elapsed = state.pop(now);
+
+            if (eventCapacity > 0) recordEvent(state, now, state.stackIds[state.depth] * 2 + 1);
+
+            if (histogramsEnabled) histogram(state.stackIds[state.depth]).record(elapsed);
         }
-        
-        functions.put(name, marker);
     }
 
     /**
-     * Reset function tracking.
+     * Set the time budget of the loop watched by loopBoundary().
+     * @param seconds Budget in seconds, such as .020 for the 20ms robot loop. Zero
+     * turns the watchdog off (default).
+     * @param sampleRate Log the breakdown of only 1 of every sampleRate overruns.
      */
-    public void reset()
+    public void setLoopBudget(double seconds, int sampleRate)
     {
-        functions.clear();
+        loopSampleRate = Math.max(1, sampleRate);
+
+        if (seconds > 0 && loopTimer == null)
+        {
+            loopTimer = MetricsRegistry.INSTANCE.timer("FunctionTracer/LoopTime");
+            MetricsRegistry.INSTANCE.gauge("FunctionTracer/Overruns", () -> overruns);
+        }
+
+        loopBudget = (long) (seconds * 1.0e9);
     }
 
     /**
-     * Print list of functions called and accumulated time since last call
-     * to this function or reset(). Only prints and removes functions from tracking
-     * if exitFunction() was called. This allows long running functions to accumulate
-     * time over multiple calls to this method until they are exited.
-     * @param out The print stream to print the list to.
+     * Returns the number of loop overruns seen by loopBoundary().
+     * @return The overrun count.
      */
-    public void printFunctions(PrintStream out)
+    public long getOverrunCount()
+    {
+        return overruns;
+    }
+
+    /**
+     * Marks the boundary between iterations of a periodic loop, call once per
+     * iteration from the loop thread. If the time since the last call is more than
+     * the loop budget, the total time, self time and calls of each function traced
+     * on this thread during the iteration are logged, largest self time first.
+     * Does nothing if no loop budget is set.
+     */
+    public void loopBoundary()
+    {
+        long budget = loopBudget;
+
+        if (!ENABLED || budget <= 0) return;
+
+        long        now = System.nanoTime();
+        ThreadState state = threadState.get();
+
+        if (state.loopCalls == null)
+        {
+            state.growLoop(state.active.length);
+            state.loopStart = now;
+
+            return;
+        }
+
+        long elapsed = now - state.loopStart;
+
+        loopTimer.record(elapsed);
+
+        if (elapsed > budget && ++overruns % loopSampleRate == 0) logOverrun(state, elapsed, budget);
+
+        state.clearLoop();
+        state.loopStart = now;
+    }
+
+    private void logOverrun(ThreadState state, long elapsed, long budget)
     {
         StringBuilder   sb = new StringBuilder();
+        Integer[]       order = new Integer[state.touchedCount];
+
+        for (int i = 0; i < order.length; i++) order[i] = state.touched[i];
+
+        Arrays.sort(order, (a, b) -> Long.compare(state.loopSelf[b], state.loopSelf[a]));
+
+        sb.append(String.format("loop overrun %.1fms budget %.1fms (%d overruns)", elapsed / 1.0e6, budget / 1.0e6,
+                                overruns));
+
+        for (int id : order)
+            sb.append(String.format("\n    %s: %.2fms self %.2fms calls %d", names[id], state.loopTotal[id] / 1.0e6,
+                                    state.loopSelf[id] / 1.0e6, state.loopCalls[id]));
+
+        Util.consoleLog(Level.WARNING, "%s", sb);
+    }
 
-        functions.forEach(
-            (key, marker) -> {
-                if (marker.exitFlag) 
+    private void recordEvent(ThreadState state, long time, int code)
+    {
+        if (state.eventGeneration != eventGeneration)
+        {
+            // Recording was started since this thread last recorded, allocate its ring.
+            state.eventTimes = new long[eventCapacity];
+            state.eventCodes = new int[eventCapacity];
+            state.eventCount = 0;
+            state.eventGeneration = eventGeneration;
+        }
+
+        state.recordEvent(time, code);
+    }
+
+    /**
+     * Start recording function enter and exit events for writeChromeTrace().
+     * Discards any events already recorded.
+     * @param eventsPerThread Number of most recent events kept for each thread.
+     * Each event takes 12 bytes.
+     */
+    public synchronized void startEventRecording(int eventsPerThread)
+    {
+        eventBase = System.nanoTime();
+        eventGeneration++;
+        eventCapacity = Math.max(2, eventsPerThread);
+    }
+
+    /**
+     * Stop recording function enter and exit events. Recorded events are kept
+     * for writeChromeTrace().
+     */
+    public void stopEventRecording()
+    {
+        eventCapacity = 0;
+    }
+
+    /**
+     * Write the recorded function events to a file in Chrome Trace Event JSON
+     * format. Each thread is a track in the timeline. Can be called while
+     * recording, but events recorded while the file is being written may be left out.
+     * @param path Path of the file to write.
+     * @throws IOException
+     */
+    public synchronized void writeChromeTrace(String path) throws IOException
+    {
+        String[]    functionNames = names;
+        long        base = eventBase;
+        boolean     first = true;
+
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)))
+        {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+
+            for (ThreadState state : threads)
+            {
+                long[]  times = state.eventTimes;
+                int[]   codes = state.eventCodes;
+
+                if (times == null || state.eventGeneration != eventGeneration) continue;
+
+                // Copy the ring, then drop any events the thread overwrote during the copy.
+
+                long    end = state.eventCount;
+                long[]  t = times.clone();
+                int[]   c = codes.clone();
+                long    start = Math.max(0, state.eventCount - times.length);
+
+                if (!first) out.write(",");
+
+                first = false;
+
+                out.write(String.format("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                                        state.threadId, jsonEscape(state.threadName)));
+
+                int depth = 0;
+
+                for (long n = start; n < end; n++)
                 {
-                	sb.append(String.format("    %s<%d>: %.4fs\n", key, marker.threadId, marker.cumulative / 1.0e6));
-                	
-                	functions.remove(key);
+                    int     i = (int) (n % t.length);
+                    boolean exit = (c[i] & 1) != 0;
+
+                    // Skip exits of functions entered before the oldest event kept.
+                    if (exit && depth == 0) continue;
+
+                    depth += exit ? -1 : 1;
+
+                    out.write(String.format(Locale.ROOT, ",\n{\"name\":\"%s\",\"ph\":\"%s\",\"ts\":%.3f,\"pid\":1,\"tid\":%d}",
+                                            jsonEscape(functionNames[c[i] >> 1]), exit ? "E" : "B",
+                                            (t[i] - base) / 1000.0, state.threadId));
                 }
-            });
-        
+            }
+
+            out.write("\n]}\n");
+        }
+    }
+
+    private static String jsonEscape(String text)
+    {
+        StringBuilder sb = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char ch = text.charAt(i);
+
+            if (ch == '"' || ch == '\\')
+                sb.append('\\').append(ch);
+            else if (ch < 0x20)
+                sb.append(String.format("\\u%04x", (int) ch));
+            else
+                sb.append(ch);
+        }
+
+        return sb.toString();
+    }
+
+    // Returns the histogram of a function id, creating it if needed.
+    private LatencyHistogram histogram(int id)
+    {
+        LatencyHistogram[]  h = histograms;
+        LatencyHistogram    histogram = id < h.length ? h[id] : null;
+
+        if (histogram != null) return histogram;
+
+        synchronized (this)
+        {
+            h = histograms;
+
+            if (id >= h.length) h = Arrays.copyOf(h, Math.max(id + 1, h.length * 2));
+
+            if (h[id] == null) h[id] = new LatencyHistogram();
+
+            histograms = h;
+
+            return h[id];
+        }
+    }
+
+    /**
+     * Turn recording of per function latency histograms on or off. Defaults to off.
+     * @param enabled True to record histograms.
+     */
+    public void setLatencyHistograms(boolean enabled)
+    {
+        histogramsEnabled = enabled;
+    }
+
+    /**
+     * Returns the latency histogram of a function.
+     * @param name The function name.
+     * @return The histogram, null if histograms are off or the function has
+     * not exited since histograms were turned on.
+     */
+    public LatencyHistogram getLatencyHistogram(String name)
+    {
+        Integer             id = ids.get(name);
+        LatencyHistogram[]  h = histograms;
+
+        return id == null || id >= h.length ? null : h[id];
+    }
+
+    /**
+     * Returns the latency statistics of each function with a histogram, as text
+     * of the form "name: n=count min= max= mean= p50= p95= p99= p999=", times in
+     * milliseconds.
+     * @return Array of statistics text.
+     */
+    public String[] getLatencySummary()
+    {
+        LatencyHistogram[]  h = histograms;
+        String[]            functionNames = names;
+        List<String>        lines = new ArrayList<>();
+
+        for (int id = 0; id < h.length; id++)
+            if (h[id] != null) lines.add(functionNames[id] + ": " + h[id]);
+
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Write the latency statistics of each function with a histogram to the
+     * DataLog. Each function has a double array entry FunctionTracer/name holding
+     * count, min, max, mean, p50, p95, p99 and p99.9, times in milliseconds. Call
+     * periodically, such as at the end of each match period.
+     */
+    public synchronized void logLatency()
+    {
+        LatencyHistogram[]  h = histograms;
+
+        if (latencyEntries.length < h.length) latencyEntries = Arrays.copyOf(latencyEntries, h.length);
+
+        for (int id = 0; id < h.length; id++)
+        {
+            if (h[id] == null) continue;
+
+            if (latencyEntries[id] == null)
+                latencyEntries[id] = new DoubleArrayLogEntry(DataLogManager.getLog(), "FunctionTracer/" + names[id]);
+
+            latencyEntries[id].append(h[id].getSummary());
+        }
+    }
+
+    @Override
+    public void initSendable(SendableBuilder builder)
+    {
+        builder.setSmartDashboardType("FunctionTracer");
+        builder.addStringArrayProperty("Latency", this::getLatencySummary, null);
+    }
+
+    /**
+     * Reset function tracking. Each thread discards its statistics the next time
+     * it enters or exits a function. Latency histograms are cleared.
+     */
+    public synchronized void reset()
+    {
+        epoch++;
+
+        for (LatencyHistogram histogram : histograms) if (histogram != null) histogram.reset();
+
+        for (ThreadState state : threads) state.printed = new long[0];
+
+        retired = new long[0];
+    }
+
+    /**
+     * Print list of functions called and accumulated time since last call
+     * to this function or reset(). Only functions that exited since then are
+     * printed. Time is credited to a function when it exits, so long running
+     * functions accumulate time over multiple calls to this method until they are
+     * exited. If latency histograms are on, the histogram statistics of each
+     * printed function follow its line.
+     * @param out The print stream to print the list to.
+     */
+    public synchronized void printFunctions(PrintStream out)
+    {
+        StringBuilder   sb = new StringBuilder();
+        String[]        functionNames = names;
+        int             currentEpoch = epoch;
+
+        pruneThreads();
+
+        for (ThreadState state : threads)
+        {
+            if (state.epoch != currentEpoch) continue;
+
+            AtomicLongArray s = state.stats;
+            long[]          printed = state.printed;
+
+            if (printed.length < s.length()) state.printed = printed = Arrays.copyOf(printed, s.length());
+
+            for (int i = 0; i < s.length(); i += FIELDS)
+            {
+                long calls = s.get(i + CALLS) - printed[i + CALLS];
+
+                if (calls == 0) continue;
+
+                long total = s.get(i + TOTAL) - printed[i + TOTAL];
+                long self = s.get(i + SELF) - printed[i + SELF];
+
+                sb.append(String.format("    %s<%d>: %.4fs self %.4fs calls %d\n", functionNames[i / FIELDS],
+                                        state.threadId, total / 1.0e9, self / 1.0e9, calls));
+
+                LatencyHistogram histogram = histogramsEnabled ? getLatencyHistogram(functionNames[i / FIELDS]) : null;
+
+                if (histogram != null) sb.append(String.format("        latency ms %s\n", histogram));
+
+                printed[i + TOTAL] += total;
+                printed[i + SELF] += self;
+                printed[i + CALLS] += calls;
+            }
+        }
+
+        for (int i = 0; i < retired.length; i += FIELDS)
+        {
+            if (retired[i + CALLS] == 0) continue;
+
+            sb.append(String.format("    %s<ended>: %.4fs self %.4fs calls %d\n", functionNames[i / FIELDS],
+                                    retired[i + TOTAL] / 1.0e9, retired[i + SELF] / 1.0e9, retired[i + CALLS]));
+        }
+
+        retired = new long[0];
+
         if (sb.length() > 0) out.print(sb.toString());
     }
 }
@@ -0,0 +1,282 @@
+package Team4450.Lib;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by RobotLib classes, for profiling robot code
+ * (typically on the desktop simulator) in JDK Mission Control alongside the JVM's own
+ * GC and thread events. Events are emitted for PID calculations, log records discarded
+ * or written through by AsyncFileHandler when its queue is full, monitor thread sample
+ * cycles, CameraFeed frame grabs and ValveDA/ValveSA actuations.
+ * <p>
+ * Events are only created when the JVM is started with
+ * -DTeam4450.Lib.JfrEvents.enabled=true. ENABLED is then a constant the JIT uses to
+ * remove the event code when the property is not set. A recording must also be
+ * running, for example by starting the JVM with -XX:StartFlightRecording. All events
+ * are in the RobotLib category and can be turned on and off individually in the
+ * recording settings.
+ * <p>
+ * Library code uses the pattern:
+ * <pre>
+ * JfrEvents.MonitorSample event = JfrEvents.ENABLED ? JfrEvents.MonitorSample.start() : null;
+ * ...
+ * if (event != null) event.finish(getName());
+ * </pre>
+ */
+public final class JfrEvents
+{
+	/** True when RobotLib JFR events are turned on. */
+	public static final boolean	ENABLED = Boolean.getBoolean("Team4450.Lib.JfrEvents.enabled");
+
+	private JfrEvents() {}
+
+	/**
+	 * One PID controller calculation.
+	 */
+	@Name("Team4450.Lib.PIDCalculation")
+	@Label("PID Calculation")
+	@Category({"RobotLib", "Control"})
+	@StackTrace(false)
+	public static final class PIDCalculation extends Event
+	{
+		@Label("Controller")
+		String	controller;
+
+		@Label("Setpoint")
+		double	setpoint;
+
+		@Label("Input")
+		double	input;
+
+		@Label("Error")
+		double	error;
+
+		@Label("Output")
+		double	output;
+
+		/**
+		 * Create the event and start its timing.
+		 * @return The event.
+		 */
+		public static PIDCalculation start()
+		{
+			PIDCalculation event = new PIDCalculation();
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Stop the event timing and commit the event.
+		 * @param controller Controller class name.
+		 * @param setpoint Setpoint.
+		 * @param input Input value.
+		 * @param error Error.
+		 * @param output Calculated output.
+		 */
+		public void finish(String controller, double setpoint, double input, double error, double output)
+		{
+			end();
+
+			if (!shouldCommit()) return;
+
+			this.controller = controller;
+			this.setpoint = setpoint;
+			this.input = input;
+			this.error = error;
+			this.output = output;
+
+			commit();
+		}
+	}
+
+	/**
+	 * Log record discarded, coalesced or written on the caller thread because the
+	 * AsyncFileHandler queue was full.
+	 */
+	@Name("Team4450.Lib.LogOverflow")
+	@Label("Log Queue Overflow")
+	@Category({"RobotLib", "Logging"})
+	public static final class LogOverflow extends Event
+	{
+		@Label("Policy")
+		@Description("Overflow policy applied, WRITE_THROUGH for the blocking queue")
+		String	policy;
+
+		@Label("Queued")
+		@Description("Records in the queue")
+		int		queued;
+
+		@Label("Dropped Count")
+		@Description("Total records dropped by the handler")
+		long	droppedCount;
+
+		/**
+		 * Commit an overflow event.
+		 * @param policy Overflow policy name.
+		 * @param queued Records in the queue.
+		 * @param droppedCount Total records dropped.
+		 */
+		public static void emit(String policy, int queued, long droppedCount)
+		{
+			LogOverflow event = new LogOverflow();
+
+			if (!event.shouldCommit()) return;
+
+			event.policy = policy;
+			event.queued = queued;
+			event.droppedCount = droppedCount;
+
+			event.commit();
+		}
+	}
+
+	/**
+	 * One sample cycle of a monitor thread, not including the delay between cycles.
+	 */
+	@Name("Team4450.Lib.MonitorSample")
+	@Label("Monitor Sample")
+	@Category({"RobotLib", "Monitor"})
+	@StackTrace(false)
+	public static final class MonitorSample extends Event
+	{
+		@Label("Monitor")
+		String	monitor;
+
+		/**
+		 * Create the event and start its timing.
+		 * @return The event.
+		 */
+		public static MonitorSample start()
+		{
+			MonitorSample event = new MonitorSample();
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Stop the event timing and commit the event.
+		 * @param monitor Monitor name.
+		 */
+		public void finish(String monitor)
+		{
+			end();
+
+			if (!shouldCommit()) return;
+
+			this.monitor = monitor;
+
+			commit();
+		}
+	}
+
+	/**
+	 * One frame grab from a CameraFeed camera.
+	 */
+	@Name("Team4450.Lib.CameraFrame")
+	@Label("Camera Frame Grab")
+	@Category({"RobotLib", "Camera"})
+	@StackTrace(false)
+	public static final class CameraFrame extends Event
+	{
+		@Label("Camera")
+		String	camera;
+
+		@Label("Success")
+		boolean	success;
+
+		@Label("Width")
+		int		width;
+
+		@Label("Height")
+		int		height;
+
+		/**
+		 * Create the event and start its timing.
+		 * @return The event.
+		 */
+		public static CameraFrame start()
+		{
+			CameraFrame event = new CameraFrame();
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Stop the event timing and commit the event.
+		 * @param camera Camera name.
+		 * @param success True if a frame was grabbed.
+		 * @param width Frame width.
+		 * @param height Frame height.
+		 */
+		public void finish(String camera, boolean success, int width, int height)
+		{
+			end();
+
+			if (!shouldCommit()) return;
+
+			this.camera = camera;
+			this.success = success;
+			this.width = width;
+			this.height = height;
+
+			commit();
+		}
+	}
+
+	/**
+	 * One valve actuation. For ValveDA the duration is the slide time power is
+	 * applied to the valve.
+	 */
+	@Name("Team4450.Lib.ValveActuation")
+	@Label("Valve Actuation")
+	@Category({"RobotLib", "Pneumatics"})
+	public static final class ValveActuation extends Event
+	{
+		@Label("Valve")
+		String	valve;
+
+		@Label("Open")
+		boolean	open;
+
+		/**
+		 * Create the event and start its timing.
+		 * @return The event.
+		 */
+		public static ValveActuation start()
+		{
+			ValveActuation event = new ValveActuation();
+
+			event.begin();
+
+			return event;
+		}
+
+		/**
+		 * Stop the event timing and commit the event.
+		 * @param valve Valve name.
+		 * @param open True if the valve was opened, false if closed.
+		 */
+		public void finish(String valve, boolean open)
+		{
+			end();
+
+			if (!shouldCommit()) return;
+
+			this.valve = valve;
+			this.open = open;
+
+			commit();
+		}
+	}
+}
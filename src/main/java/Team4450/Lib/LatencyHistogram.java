@@ -0,0 +1,176 @@
+package Team4450.Lib;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed memory histogram of latencies in nanoseconds. Buckets are log-linear:
+ * values below 32 each have their own bucket, above that each power of two is
+ * split into 32 equal buckets, so a reported value is within about 3% of the
+ * recorded value. Values up to 2^36 ns (about 68 seconds) are tracked, larger
+ * values are counted in the last bucket. Recording does not allocate or lock and
+ * can be done from multiple threads while other threads read the statistics.
+ */
+public class LatencyHistogram
+{
+	private static final int	subBucketBits = 5;
+	private static final int	subBuckets = 1 << subBucketBits;
+	private static final int	maxBit = 36;
+
+	/** Number of buckets in a histogram. */
+	public static final int		BUCKET_COUNT = subBuckets + (maxBit - subBucketBits) * subBuckets;
+
+	private final AtomicIntegerArray	counts = new AtomicIntegerArray(BUCKET_COUNT);
+	private final AtomicLong			count = new AtomicLong(), sum = new AtomicLong();
+	private final AtomicLong			min = new AtomicLong(Long.MAX_VALUE), max = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 * @param nanos The latency in nanoseconds.
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0) nanos = 0;
+
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		long m;
+
+		while (nanos < (m = min.get()) && !min.compareAndSet(m, nanos));
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos));
+	}
+
+	/**
+	 * Clear all recorded latencies. Latencies recorded by other threads while the
+	 * reset is in progress may be partly lost.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+
+		count.set(0);
+		sum.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(0);
+	}
+
+	/**
+	 * Returns the number of latencies recorded.
+	 * @return The count.
+	 */
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Returns the smallest latency recorded.
+	 * @return Latency in nanoseconds, zero if none recorded.
+	 */
+	public long getMin()
+	{
+		long m = min.get();
+
+		return m == Long.MAX_VALUE ? 0 : m;
+	}
+
+	/**
+	 * Returns the largest latency recorded.
+	 * @return Latency in nanoseconds, zero if none recorded.
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the latencies recorded.
+	 * @return Mean latency in nanoseconds, zero if none recorded.
+	 */
+	public double getMean()
+	{
+		long n = count.get();
+
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the latency at a percentile. The value returned is the highest value
+	 * that falls in the same bucket as the latency at the percentile, limited to
+	 * the largest latency recorded.
+	 * @param percentile The percentile, 0 to 100.
+	 * @return Latency in nanoseconds, zero if none recorded.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) total += counts.get(i);
+
+		if (total == 0) return 0;
+
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += counts.get(i);
+
+			if (seen >= target) return Math.min(highestValue(i), getMax());
+		}
+
+		return getMax();
+	}
+
+	/**
+	 * Returns the statistics of this histogram in an array: count, min, max,
+	 * mean, p50, p95, p99 and p99.9. Latencies are in milliseconds.
+	 * @return Array of statistics.
+	 */
+	public double[] getSummary()
+	{
+		return new double[] {getCount(), getMin() / 1.0e6, getMax() / 1.0e6, getMean() / 1.0e6,
+							 getValueAtPercentile(50) / 1.0e6, getValueAtPercentile(95) / 1.0e6,
+							 getValueAtPercentile(99) / 1.0e6, getValueAtPercentile(99.9) / 1.0e6};
+	}
+
+	/**
+	 * Returns the statistics of this histogram as text. Latencies are in milliseconds.
+	 * @return Statistics text.
+	 */
+	@Override
+	public String toString()
+	{
+		double[] s = getSummary();
+
+		return String.format("n=%d min=%.3f max=%.3f mean=%.3f p50=%.3f p95=%.3f p99=%.3f p999=%.3f",
+							 (long) s[0], s[1], s[2], s[3], s[4], s[5], s[6], s[7]);
+	}
+
+	// Returns the bucket index of a value.
+	static int bucket(long value)
+	{
+		if (value < subBuckets) return (int) value;
+
+		int msb = 63 - Long.numberOfLeadingZeros(value);
+
+		if (msb >= maxBit) return BUCKET_COUNT - 1;
+
+		int shift = msb - subBucketBits;
+
+		return subBuckets + shift * subBuckets + (int) (value >>> shift) - subBuckets;
+	}
+
+	// Returns the highest value that falls in a bucket.
+	static long highestValue(int bucket)
+	{
+		if (bucket < subBuckets) return bucket;
+
+		int shift = (bucket - subBuckets) / subBuckets;
+		long mantissa = subBuckets + (bucket - subBuckets) % subBuckets;
+
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
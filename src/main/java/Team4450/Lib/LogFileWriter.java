@@ -0,0 +1,227 @@
+package Team4450.Lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes batches of formatted log text to disk with a single FileChannel write per
+ * batch. Text is collected in a reusable buffer and written when the buffer passes
+ * a size watermark or the oldest unwritten text passes a time watermark. Handles
+ * size based rotation using the same generation file names as the Java FileHandler
+ * (Logging.txt.0, Logging.txt.1...) with generation 0 being the current file.
+ * Not thread safe, callers must synchronize.
+ */
+final class LogFileWriter
+{
+    private final String            pattern;
+    private final int               limit, count;
+    private final CharsetEncoder    encoder;
+    private final ByteBuffer        buffer;
+    private final StringBuilder     text;
+    private final int               flushBytes;
+    private final long              flushNanos;
+    private FileChannel             channel;
+    private long                    written, firstPendingTime;
+    private boolean                 pending;
+
+    /**
+     * Create writer and open generation 0 of the log file for append.
+     * @param pattern FileHandler style file name pattern.
+     * @param limit Approximate maximum bytes to write to one file, zero for no limit.
+     * @param count Number of generations of the file to keep.
+     * @param charset Character set to encode text with.
+     * @param bufferSize Size in bytes of the write buffer. Buffer is written when it
+     * is 3/4 full.
+     * @param flushInterval Maximum time in seconds text is held before being written.
+     */
+    LogFileWriter(String pattern, int limit, int count, Charset charset, int bufferSize, double flushInterval) throws IOException
+    {
+        if (count < 1) throw new IllegalArgumentException("file count must be at least 1");
+        if (bufferSize < 1024) throw new IllegalArgumentException("buffer size must be at least 1024");
+
+        this.pattern = pattern;
+        this.limit = limit;
+        this.count = count;
+
+        encoder = charset.newEncoder()
+                         .onMalformedInput(CodingErrorAction.REPLACE)
+                         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        text = new StringBuilder(1024);
+        flushBytes = bufferSize / 4 * 3;
+        flushNanos = (long) (flushInterval * 1.0e9);
+
+        open(false);
+    }
+
+    /**
+     * Add formatted text to the write buffer. Writes to disk if the size watermark
+     * has been reached.
+     * @param s Text to write.
+     */
+    void append(String s) throws IOException
+    {
+        if (!pending)
+        {
+            pending = true;
+            firstPendingTime = System.nanoTime();
+        }
+
+        text.append(s);
+
+        if (text.length() >= 1024) encodeText();
+
+        if (buffer.position() >= flushBytes) flush();
+    }
+
+    /**
+     * Write buffered text to disk if the oldest text has been held longer than
+     * the flush interval.
+     * @return Nanoseconds until the buffer will be due to be written or
+     * Long.MAX_VALUE if nothing is buffered.
+     */
+    long flushIfDue() throws IOException
+    {
+        if (!pending) return Long.MAX_VALUE;
+
+        long remaining = flushNanos - (System.nanoTime() - firstPendingTime);
+
+        if (remaining > 0) return remaining;
+
+        flush();
+
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Write all buffered text to disk.
+     */
+    void flush() throws IOException
+    {
+        encodeText();
+        writeBuffer();
+
+        pending = false;
+
+        if (limit > 0 && written >= limit) rotate();
+    }
+
+    /**
+     * Write all buffered text to disk and close the file.
+     */
+    void close() throws IOException
+    {
+        try {
+            flush();
+            channel.force(false);
+        } finally { channel.close(); }
+    }
+
+    // Move text from the text buffer into the byte buffer, writing the byte buffer
+    // to disk when it fills.
+    private void encodeText() throws IOException
+    {
+        if (text.length() == 0) return;
+
+        CharBuffer chars = CharBuffer.wrap(text);
+
+        for (;;)
+        {
+            CoderResult result = encoder.encode(chars, buffer, true);
+
+            if (result.isOverflow())
+                writeBuffer();
+            else
+                break;
+        }
+
+        encoder.reset();
+        text.setLength(0);
+    }
+
+    private void writeBuffer() throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) written += channel.write(buffer);
+
+        buffer.clear();
+    }
+
+    // Close current file, shift the generations up one and start a new generation 0.
+    private void rotate() throws IOException
+    {
+        channel.close();
+
+        for (int i = count - 2; i >= 0; i--)
+        {
+            File from = generation(i), to = generation(i + 1);
+
+            if (from.exists())
+            {
+                if (to.exists()) to.delete();
+
+                from.renameTo(to);
+            }
+        }
+
+        open(true);
+    }
+
+    private void open(boolean truncate) throws IOException
+    {
+        File file = generation(0);
+
+        if (truncate)
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+        else
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                       StandardOpenOption.APPEND);
+
+        written = channel.size();
+    }
+
+    // Resolve the file name for a generation the same way FileHandler does. The
+    // unique number %u is assumed to be 0.
+    private File generation(int gen)
+    {
+        StringBuilder   name = new StringBuilder();
+        boolean         sawGen = false;
+
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            char ch = pattern.charAt(i);
+
+            if (ch == '%' && i + 1 < pattern.length())
+            {
+                char next = pattern.charAt(++i);
+
+                switch (next)
+                {
+                    case 'g': name.append(gen); sawGen = true; break;
+                    case 'u': name.append(0); break;
+                    case 'h': name.append(System.getProperty("user.home")); break;
+                    case 't': name.append(System.getProperty("java.io.tmpdir")); break;
+                    case '%': name.append('%'); break;
+                    default: name.append(ch).append(next);
+                }
+            }
+            else
+                name.append(ch);
+        }
+
+        if (count > 1 && !sawGen) name.append('.').append(gen);
+
+        return new File(name.toString());
+    }
+}
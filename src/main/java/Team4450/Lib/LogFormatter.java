@@ -0,0 +1,90 @@
+package Team4450.Lib;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formatter for our custom logging output. Formats a log record as
+ * {@code <thread id>hh:mm:ss:SSS: message}. Safe to use from multiple
+ * threads at once, the file handler worker, the DataLogHandler and the
+ * console handler all share one instance. Each thread has its own reusable
+ * buffer and its own cached time prefix, which is only rendered again when
+ * the second changes. Only the milliseconds are rendered for each record.
+ */
+public class LogFormatter extends Formatter
+{
+	private static final DateTimeFormatter	secondFormat = DateTimeFormatter.ofPattern("hh:mm:ss:");
+	private static final int				maxRetainedBuffer = 8192;
+
+	private final ZoneId					zone;
+	private final ThreadLocal<State>		state = ThreadLocal.withInitial(State::new);
+
+	// Per thread formatting state.
+	private static final class State
+	{
+		StringBuilder	buf = new StringBuilder(256);
+		long			second = Long.MIN_VALUE;
+		String			prefix;
+	}
+
+	/**
+	 * Create a formatter that shows time in the Pacific time zone.
+	 */
+	public LogFormatter()
+	{
+		this(ZoneId.of("America/Los_Angeles"));
+	}
+
+	/**
+	 * Create a formatter that shows time in the specified time zone.
+	 * @param zone The time zone.
+	 */
+	public LogFormatter(ZoneId zone)
+	{
+		this.zone = zone;
+	}
+
+	/**
+	 * Format a log record.
+	 * @param rec The log record.
+	 * @return Formatted log record text.
+	 */
+	@Override
+	public String format(LogRecord rec)
+	{
+		State			st = state.get();
+		StringBuilder	buf = st.buf;
+		long			millis = rec.getMillis();
+		long			second = Math.floorDiv(millis, 1000);
+		int				ms = (int) Math.floorMod(millis, 1000);
+
+		if (second != st.second)
+		{
+			st.prefix = secondFormat.format(Instant.ofEpochSecond(second).atZone(zone));
+			st.second = second;
+		}
+
+		buf.setLength(0);
+
+		buf.append('<').append(rec.getLongThreadID()).append('>');
+		buf.append(st.prefix);
+
+		if (ms < 100) buf.append('0');
+		if (ms < 10) buf.append('0');
+
+		buf.append(ms);
+		buf.append(": ");
+		buf.append(formatMessage(rec));
+		buf.append('\n');
+
+		String text = buf.toString();
+
+		// Don't hang on to a large buffer after an unusually long message.
+		if (buf.capacity() > maxRetainedBuffer) st.buf = new StringBuilder(256);
+
+		return text;
+	}
+}
@@ -0,0 +1,287 @@
+package Team4450.Lib;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEvent;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Per package and per class log levels. A level can be set for the root (all
+ * classes), for a package name or for a full class name. A class uses the level
+ * set for the longest matching name, so a class level overrides its package level,
+ * which overrides the root level. The root level defaults to ALL, so nothing is
+ * gated until levels are configured.
+ * <p>
+ * The Util.consoleLog methods check these levels against the calling class. Code
+ * that logs from time critical loops can hold a {@link Gate} for its class in a
+ * static field and check it before building log messages. A gate check is a
+ * volatile int compare, the gate's level is only looked up again after the level
+ * configuration changes.
+ * <p>
+ * Levels are loaded from Robot.properties by Util.readProperties(), using keys of
+ * the form {@code log.level.<package or class name>=<level>} with
+ * {@code log.level.root} for the root level. They can be changed at runtime through
+ * the NetworkTables table started by startNetworkTables().
+ */
+public class LogLevels
+{
+	/** Name used for the root level. */
+	public static final String	ROOT = "root";
+
+	/** Prefix of Robot.properties keys that set log levels. */
+	public static final String	PROPERTY_PREFIX = "log.level.";
+
+	private static final Map<String, Level>	levels = new ConcurrentHashMap<String, Level>();
+	private static volatile int		generation;
+	private static volatile int		rootLevel = Level.ALL.intValue();
+	private static volatile int		minimumLevel = Level.ALL.intValue();
+	private static volatile boolean	overrides;
+	private static NetworkTable		table;
+
+	private static final ClassValue<Gate> gates = new ClassValue<Gate>()
+	{
+		@Override
+		protected Gate computeValue(Class<?> type) { return new Gate(type.getName()); }
+	};
+
+	// Private constructor means this class cannot be instantiated. All access is static.
+
+	private LogLevels()
+	{
+	}
+
+	/**
+	 * Log level check for one class. Get with LogLevels.gate().
+	 */
+	public static final class Gate
+	{
+		private final String	name;
+		private volatile int	threshold;
+		private volatile int	gateGeneration = -1;
+
+		private Gate(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Returns true if logging at the level is enabled for this gate's class.
+		 * Handler levels are not considered, see Util.isLoggable().
+		 * @param level The log level.
+		 * @return True if enabled.
+		 */
+		public boolean isLoggable(Level level)
+		{
+			if (gateGeneration != generation) refresh();
+
+			return level.intValue() >= threshold;
+		}
+
+		/**
+		 * Returns the level in effect for this gate's class.
+		 * @return The level value.
+		 */
+		public int getThreshold()
+		{
+			if (gateGeneration != generation) refresh();
+
+			return threshold;
+		}
+
+		private void refresh()
+		{
+			int gen = generation;
+
+			threshold = lookup(name);
+			gateGeneration = gen;
+		}
+	}
+
+	/**
+	 * Returns the gate for a class. Gates are created once per class.
+	 * @param type The class.
+	 * @return The gate.
+	 */
+	public static Gate gate(Class<?> type)
+	{
+		return gates.get(type);
+	}
+
+	/**
+	 * Returns true if logging at the level is enabled for a class.
+	 * @param type The class.
+	 * @param level The log level.
+	 * @return True if enabled.
+	 */
+	public static boolean isLoggable(Class<?> type, Level level)
+	{
+		return type == null ? level.intValue() >= rootLevel : gates.get(type).isLoggable(level);
+	}
+
+	/**
+	 * Returns the lowest level set anywhere. Levels below this are disabled for
+	 * every class.
+	 * @return The level value.
+	 */
+	public static int getMinimumLevel()
+	{
+		return minimumLevel;
+	}
+
+	/**
+	 * Returns true if any package or class levels are set. When false every class
+	 * uses the root level.
+	 * @return True if there are package or class levels.
+	 */
+	public static boolean hasOverrides()
+	{
+		return overrides;
+	}
+
+	/**
+	 * Set the log level for a package or class.
+	 * @param name Package or full class name, or "root" for the root level.
+	 * @param level The level, null to remove the package or class level.
+	 */
+	public static synchronized void setLevel(String name, Level level)
+	{
+		if (ROOT.equals(name) && level == null) level = Level.ALL;
+
+		Level old = level == null ? levels.remove(name) : levels.put(name, level);
+
+		if (old == level) return;
+
+		update();
+
+		if (table != null) table.getEntry(name).setString(level == null ? "" : level.getName());
+	}
+
+	/**
+	 * Returns the level set for a package or class name.
+	 * @param name Package or full class name, or "root".
+	 * @return The level, null if none set for that name.
+	 */
+	public static Level getLevel(String name)
+	{
+		return levels.get(name);
+	}
+
+	/**
+	 * Remove all package and class levels and set the root level to ALL.
+	 */
+	public static synchronized void reset()
+	{
+		levels.clear();
+
+		update();
+	}
+
+	/**
+	 * Set log levels from properties with keys of the form log.level.name.
+	 * Invalid level values are logged and skipped.
+	 * @param props The properties.
+	 */
+	public static void load(Properties props)
+	{
+		for (String key : props.stringPropertyNames())
+		{
+			if (!key.startsWith(PROPERTY_PREFIX)) continue;
+
+			String name = key.substring(PROPERTY_PREFIX.length());
+
+			Level level = parse(props.getProperty(key));
+
+			if (level == null)
+				Util.consoleLog("invalid log level %s=%s", key, props.getProperty(key));
+			else
+				setLevel(name, level);
+		}
+	}
+
+	/**
+	 * Publish the log levels to a NetworkTables table and watch the table for
+	 * changes. Each entry is a package or class name holding a level name. Adding
+	 * or changing an entry sets that level, an empty value removes it.
+	 * @param tableName Name of the table.
+	 */
+	public static synchronized void startNetworkTables(String tableName)
+	{
+		if (table != null) return;
+
+		NetworkTableInstance instance = NetworkTableInstance.getDefault();
+
+		table = instance.getTable(tableName);
+
+		levels.forEach((name, level) -> table.getEntry(name).setString(level.getName()));
+
+		if (!levels.containsKey(ROOT)) table.getEntry(ROOT).setString(Level.ALL.getName());
+
+		String prefix = table.getPath() + NetworkTable.PATH_SEPARATOR;
+
+		instance.addListener(new String[] {prefix}, EnumSet.of(NetworkTableEvent.Kind.kValueAll), event ->
+		{
+			String name = event.valueData.getTopic().getName().substring(prefix.length());
+			String value = event.valueData.value.isString() ? event.valueData.value.getString() : "";
+
+			if (value.isEmpty())
+				setLevel(name, null);
+			else
+			{
+				Level level = parse(value);
+
+				if (level == null)
+					Util.consoleLog("invalid log level %s=%s", name, value);
+				else
+					setLevel(name, level);
+			}
+		});
+	}
+
+	private static Level parse(String value)
+	{
+		try
+		{
+			return Level.parse(value.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e) { return null; }
+	}
+
+	// Recompute the summary values and make gates look up their levels again.
+	private static void update()
+	{
+		Level root = levels.get(ROOT);
+		int min = root == null ? Level.ALL.intValue() : root.intValue();
+
+		rootLevel = min;
+
+		for (Level level : levels.values()) min = Math.min(min, level.intValue());
+
+		minimumLevel = min;
+		overrides = levels.size() > (root == null ? 0 : 1);
+
+		generation++;
+	}
+
+	// Find the level for a class name from the longest matching package or class name.
+	// Nested classes match their outer class name.
+	private static int lookup(String name)
+	{
+		while (true)
+		{
+			Level level = levels.get(name);
+
+			if (level != null) return level.intValue();
+
+			int i = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+
+			if (i < 0) return rootLevel;
+
+			name = name.substring(0, i);
+		}
+	}
+}
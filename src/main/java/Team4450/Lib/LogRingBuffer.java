@@ -0,0 +1,127 @@
+package Team4450.Lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.LogRecord;
+
+/**
+ * Bounded, lock-free ring buffer of log records. Any number of threads may offer
+ * records, one thread drains them. Slots are allocated once when the buffer is
+ * created, offer() and poll() never block and never allocate. Each slot carries a
+ * sequence number that tells producers and the consumer whose turn it is to use
+ * the slot (D. Vyukov bounded queue).
+ */
+final class LogRingBuffer
+{
+    private final LogRecord[]       slots;
+    private final AtomicLongArray   sequence;
+    private final int               mask;
+    private final AtomicLong        head = new AtomicLong(), tail = new AtomicLong();
+
+    /**
+     * Create a ring buffer.
+     * @param capacity Minimum number of record slots. Rounded up to a power of 2.
+     */
+    LogRingBuffer(int capacity)
+    {
+        if (capacity < 2) throw new IllegalArgumentException("capacity must be at least 2");
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+
+        slots = new LogRecord[size];
+        sequence = new AtomicLongArray(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+    }
+
+    /**
+     * Add a record to the buffer.
+     * @param record The record to add.
+     * @return True if added, false if the buffer is full.
+     */
+    boolean offer(LogRecord record)
+    {
+        for (;;)
+        {
+            long pos = tail.get();
+            int  index = (int) pos & mask;
+            long dif = sequence.get(index) - pos;
+
+            if (dif == 0)
+            {
+                if (tail.compareAndSet(pos, pos + 1))
+                {
+                    slots[index] = record;
+                    sequence.lazySet(index, pos + 1);
+                    return true;
+                }
+            }
+            else if (dif < 0)
+                return false;
+
+            // Another producer claimed this slot first, try the next one.
+        }
+    }
+
+    /**
+     * Remove the oldest record from the buffer. Normally only called by the
+     * consumer thread but producers may call it to discard the oldest record.
+     * @return The oldest record or null if the buffer is empty.
+     */
+    LogRecord poll()
+    {
+        for (;;)
+        {
+            long pos = head.get();
+            int  index = (int) pos & mask;
+            long dif = sequence.get(index) - (pos + 1);
+
+            if (dif == 0)
+            {
+                if (head.compareAndSet(pos, pos + 1))
+                {
+                    LogRecord record = slots[index];
+
+                    slots[index] = null;
+                    sequence.lazySet(index, pos + mask + 1);
+
+                    return record;
+                }
+            }
+            else if (dif < 0)
+                return null;
+        }
+    }
+
+    /**
+     * Returns approximate number of records in the buffer.
+     * @return Record count.
+     */
+    int size()
+    {
+        long size = tail.get() - head.get();
+
+        if (size < 0) return 0;
+
+        return (int) Math.min(size, slots.length);
+    }
+
+    /**
+     * Returns true if the buffer has no records.
+     * @return True if empty.
+     */
+    boolean isEmpty()
+    {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Returns number of record slots.
+     * @return Capacity.
+     */
+    int capacity()
+    {
+        return slots.length;
+    }
+}
@@ -0,0 +1,405 @@
+package Team4450.Lib;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+
+/**
+ * Registry of health and performance metrics for RobotLib components and robot
+ * code. Metrics are counters, gauges and timers holding primitive values. They are
+ * cheap to update from any thread and are only read when published. Once started,
+ * the registry publishes all metrics in one batch at a fixed rate, to NetworkTables
+ * under RobotLib/Metrics and to the DataLog under the same names. Values that have
+ * not changed since the last batch are not published again.
+ * <p>
+ * Library classes register their own metrics, such as the log file handler's drop
+ * counts, the power monitors' voltage and alarms and FunctionTracer's loop overruns.
+ * Nothing is published until start() is called.
+ */
+public class MetricsRegistry
+{
+	/** NetworkTables table and DataLog key prefix metrics are published under. */
+	public static final String	TABLE = "RobotLib/Metrics";
+
+	// Singleton class pattern single instance.
+	public static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+	private final Map<String, Metric>	metrics = new ConcurrentHashMap<String, Metric>();
+	private final List<Metric>			metricList = new CopyOnWriteArrayList<Metric>();
+	private volatile double				publishInterval = 1.0;	// Seconds.
+	private volatile boolean			networkTables = true, dataLog = true;
+	private Thread						publisher;
+	private NetworkTable				table;
+
+	private MetricsRegistry() {}
+
+	/**
+	 * Returns a reference pointer to the global instance of MetricsRegistry.
+	 * @return Instance pointer.
+	 */
+	public static MetricsRegistry getInstance() { return INSTANCE; }
+
+	/**
+	 * Base of the metric types. Each metric publishes one or more values, a value
+	 * is published under the metric name plus its suffix. Metrics are created by
+	 * the registry, not by subclassing.
+	 */
+	public abstract static class Metric
+	{
+		private final String			name;
+		private final String[]			suffixes;
+		private final double[]			lastValues;
+		private final DoublePublisher[]	publishers;
+		private final DoubleLogEntry[]	entries;
+
+		private Metric(String name, String... suffixes)
+		{
+			this.name = name;
+			this.suffixes = suffixes;
+
+			lastValues = new double[suffixes.length];
+			publishers = new DoublePublisher[suffixes.length];
+			entries = new DoubleLogEntry[suffixes.length];
+
+			Arrays.fill(lastValues, Double.NaN);
+		}
+
+		/**
+		 * Returns the name the metric is registered and published under.
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		// Read the current values into the array.
+		abstract void sample(double[] values);
+	}
+
+	/**
+	 * A count of events. Updating it does not lock and does not allocate.
+	 */
+	public static final class Counter extends Metric
+	{
+		private final LongAdder	count = new LongAdder();
+
+		private Counter(String name)
+		{
+			super(name, "");
+		}
+
+		/** Add one to the count. */
+		public void increment()
+		{
+			count.increment();
+		}
+
+		/**
+		 * Add to the count.
+		 * @param amount Amount to add.
+		 */
+		public void add(long amount)
+		{
+			count.add(amount);
+		}
+
+		/**
+		 * Returns the count.
+		 * @return The count.
+		 */
+		public long get()
+		{
+			return count.sum();
+		}
+
+		@Override
+		void sample(double[] values)
+		{
+			values[0] = count.sum();
+		}
+	}
+
+	/**
+	 * A value that is set by its owner or read from a supplier when published.
+	 */
+	public static final class Gauge extends Metric
+	{
+		private volatile double			value;
+		private final DoubleSupplier	supplier;
+
+		private Gauge(String name, DoubleSupplier supplier)
+		{
+			super(name, "");
+
+			this.supplier = supplier;
+		}
+
+		/**
+		 * Set the value. Ignored if the gauge reads its value from a supplier.
+		 * @param value The value.
+		 */
+		public void set(double value)
+		{
+			this.value = value;
+		}
+
+		/**
+		 * Returns the value.
+		 * @return The value.
+		 */
+		public double get()
+		{
+			return supplier == null ? value : supplier.getAsDouble();
+		}
+
+		@Override
+		void sample(double[] values)
+		{
+			values[0] = get();
+		}
+	}
+
+	/**
+	 * Records durations in a {@link LatencyHistogram}. Each batch publishes the
+	 * count, mean, p99 and max of the durations recorded since the last batch,
+	 * in milliseconds, under name/count, name/mean, name/p99 and name/max.
+	 */
+	public static final class Timer extends Metric
+	{
+		private final LatencyHistogram	histogram = new LatencyHistogram();
+
+		private Timer(String name)
+		{
+			super(name, "/count", "/mean", "/p99", "/max");
+		}
+
+		/**
+		 * Record a duration.
+		 * @param nanos Duration in nanoseconds.
+		 */
+		public void record(long nanos)
+		{
+			histogram.record(nanos);
+		}
+
+		/**
+		 * Record the time since a start time.
+		 * @param startNanos Start time from System.nanoTime().
+		 */
+		public void recordSince(long startNanos)
+		{
+			histogram.record(System.nanoTime() - startNanos);
+		}
+
+		@Override
+		void sample(double[] values)
+		{
+			values[0] = histogram.getCount();
+			values[1] = histogram.getMean() / 1.0e6;
+			values[2] = histogram.getValueAtPercentile(99) / 1.0e6;
+			values[3] = histogram.getMax() / 1.0e6;
+
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Returns the counter with the name, creating it if needed.
+	 * @param name Metric name, use / to group names, ie: "Logging/Dropped".
+	 * @return The counter.
+	 */
+	public Counter counter(String name)
+	{
+		return register(name, Counter.class, () -> new Counter(name));
+	}
+
+	/**
+	 * Returns the settable gauge with the name, creating it if needed.
+	 * @param name Metric name.
+	 * @return The gauge.
+	 */
+	public Gauge gauge(String name)
+	{
+		return register(name, Gauge.class, () -> new Gauge(name, null));
+	}
+
+	/**
+	 * Register a gauge that reads its value from a supplier when published,
+	 * replacing any metric with the same name. The supplier is called on the
+	 * publishing thread.
+	 * @param name Metric name.
+	 * @param supplier Supplies the value.
+	 * @return The gauge.
+	 */
+	public Gauge gauge(String name, DoubleSupplier supplier)
+	{
+		remove(name);
+
+		return register(name, Gauge.class, () -> new Gauge(name, supplier));
+	}
+
+	/**
+	 * Returns the timer with the name, creating it if needed.
+	 * @param name Metric name.
+	 * @return The timer.
+	 */
+	public Timer timer(String name)
+	{
+		return register(name, Timer.class, () -> new Timer(name));
+	}
+
+	/**
+	 * Remove a metric. Its last published values stay in NetworkTables.
+	 * @param name Metric name.
+	 */
+	public synchronized void remove(String name)
+	{
+		Metric metric = metrics.remove(name);
+
+		if (metric != null) metricList.remove(metric);
+	}
+
+	private synchronized <T extends Metric> T register(String name, Class<T> type,
+													   Supplier<T> factory)
+	{
+		Metric metric = metrics.get(name);
+
+		if (metric == null)
+		{
+			metric = factory.get();
+
+			metrics.put(name, metric);
+			metricList.add(metric);
+		}
+		else if (!type.isInstance(metric))
+			throw new IllegalArgumentException("metric " + name + " is already registered as a "
+											   + metric.getClass().getSimpleName());
+
+		return type.cast(metric);
+	}
+
+	/**
+	 * Turn publishing to NetworkTables on or off. Defaults to on.
+	 * @param enabled True to publish to NetworkTables.
+	 * @return This registry.
+	 */
+	public MetricsRegistry withNetworkTables(boolean enabled)
+	{
+		networkTables = enabled;
+
+		return this;
+	}
+
+	/**
+	 * Turn publishing to the DataLog on or off. Defaults to on.
+	 * @param enabled True to publish to the DataLog.
+	 * @return This registry.
+	 */
+	public MetricsRegistry withDataLog(boolean enabled)
+	{
+		dataLog = enabled;
+
+		return this;
+	}
+
+	/**
+	 * Start publishing all metrics at a fixed rate on a separate thread.
+	 * @param interval Time between batches in seconds.
+	 */
+	public synchronized void start(double interval)
+	{
+		Util.consoleLog("interval=%.2f", interval);
+
+		publishInterval = interval;
+
+		if (publisher != null) return;
+
+		publisher = new Thread(() ->
+		{
+			try
+			{
+				while (!Thread.interrupted())
+				{
+					publish();
+
+					Thread.sleep((long) (publishInterval * 1000));
+				}
+			}
+			catch (InterruptedException e) {}
+			catch (Throwable e) { Util.logException(e); }
+		}, "MetricsRegistry");
+
+		publisher.setDaemon(true);
+		publisher.start();
+	}
+
+	/**
+	 * Stop publishing metrics.
+	 */
+	public synchronized void stop()
+	{
+		Util.consoleLog();
+
+		if (publisher != null) publisher.interrupt();
+
+		publisher = null;
+	}
+
+	/**
+	 * Publish all metrics now. Called by the publishing thread, can be called
+	 * directly to publish from robot code instead of starting the thread.
+	 */
+	public synchronized void publish()
+	{
+		double[] values = new double[4];
+
+		for (Metric metric : metricList)
+		{
+			metric.sample(values);
+
+			for (int i = 0; i < metric.suffixes.length; i++)
+			{
+				double value = values[i];
+
+				// Skip unchanged values. NaN never equals, so compare the bits.
+				if (Double.doubleToLongBits(value) == Double.doubleToLongBits(metric.lastValues[i])) continue;
+
+				metric.lastValues[i] = value;
+
+				String key = metric.name + metric.suffixes[i];
+
+				if (networkTables)
+				{
+					if (metric.publishers[i] == null)
+					{
+						if (table == null) table = NetworkTableInstance.getDefault().getTable(TABLE);
+
+						metric.publishers[i] = table.getDoubleTopic(key).publish();
+					}
+
+					metric.publishers[i].set(value);
+				}
+
+				if (dataLog)
+				{
+					if (metric.entries[i] == null)
+						metric.entries[i] = new DoubleLogEntry(DataLogManager.getLog(), TABLE + "/" + key);
+
+					metric.entries[i].append(value);
+				}
+			}
+		}
+	}
+}
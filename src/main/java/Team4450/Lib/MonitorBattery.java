@@ -1,15 +1,20 @@
 
 package Team4450.Lib;
 
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.RobotController;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import Team4450.Lib.MonitorEvent.MonitorEventType;
 
 /**
  * Battery voltage monitoring task.
- * Runs as a separate thread from the Robot class. Runs until our
+ * Runs on the shared {@link MonitorScheduler} thread. Runs until our
  * program is terminated from the RoboRio.
- * Displays warning LED on DS on low voltage.
+ * Displays warning LED on DS on low voltage. Low battery changes are raised
+ * as {@link MonitorEvent}s to a registered listener.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * the battery is being watched.
  * @deprecated
  * Use {@link MonitorPDP} instead.
  */
@@ -18,6 +23,10 @@ public class MonitorBattery extends Thread
 {
   private final double		  	LOW_BATTERY = 11.7;
   private static MonitorBattery	monitorBattery;
+  private boolean					alarmFlash = false, lowBatteryAlarm = false;
+  private double					delay = 10.0;	// Seconds
+  private MonitorScheduler.Task		task;
+  private volatile MonitorEventListener	eventListener;
 
   // Create single instance of this class and return that single instance to any callers.
   // This is the singleton class model. You don't use new, you use getInstance.
@@ -43,48 +52,101 @@ public class MonitorBattery extends Thread
 	  Util.consoleLog();
 	  this.setName("MonitorBattery");
   }
+  
+  /**
+   * Register a MonitorEventListener object instance to receive events. Events are
+   * raised when voltage goes below the low battery threshold and when it goes back above.
+   * @param listener MonitorEventListener object instance to receive events.
+   */
+  public void setMonitorEventListener(MonitorEventListener listener)
+  {
+	  eventListener = listener;
+  }
+  
+  private void notifyEventListener(MonitorEventType eventType, Object eventData)
+  {
+	  MonitorEventListener listener = eventListener;
+	  
+	  if (listener != null)
+	  {
+		  MonitorEvent event = new MonitorEvent(this, eventType, eventData);
+		  
+		  MonitorScheduler.INSTANCE.dispatch(() -> listener.event(event));
+	  }
+  }
+    
+  /**
+   * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+   * instead of starting a thread.
+   */
+  @Override
+  public synchronized void start()
+  {
+	  Util.consoleLog();
+	  
+	  if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> delay);
+  }
+  
+  /**
+   * Stop monitoring. Cancels the scheduled task.
+   */
+  @Override
+  public synchronized void interrupt()
+  {
+	  if (task != null) task.cancel();
+	  
+	  task = null;
+  }
+  
+  /**
+   * Returns true if the monitor has been started and not stopped.
+   * @return True if monitoring.
+   */
+  public synchronized boolean isRunning()
+  {
+	  return task != null;
+  }
     
   /**
-   * Start monitoring. Called by Thread.start().
+   * Run one monitoring cycle. Called by the MonitorScheduler after start().
    */
   public void run()
   {        
-	  boolean alarmFlash = false;
-
-	  try
-	  {
-		  Util.consoleLog();
+      // Check battery voltage every 10 seconds. If voltage below threshold
+      // shift to one second interval and flash dashboard led. Voltage can
+      // sag below threshold under load and then come back up so this code 
+      // will turn off the led warning if voltage goes back above threshold.
         
-          // Check battery voltage every 10 seconds. If voltage below threshold
-          // shift to one second interval and flash dashboard led. Voltage can
-          // sag below threshold under load and then come back up so this code 
-          // will turn off the led warning if voltage goes back above threshold.
-        
-		  while (!isInterrupted())
-          {
-			  if (RobotController.getBatteryVoltage() < LOW_BATTERY)
-			  {
-				  if (alarmFlash)
-				  {
-					  alarmFlash = false;
-				  }
-				  else
-				  {
-					  alarmFlash = true;
-				  }
+	  double voltage = RobotController.getBatteryVoltage();
+	  
+	  if (voltage < LOW_BATTERY)
+	  {
+		  if (!lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBattery, voltage);
+		  
+		  lowBatteryAlarm = true;
+		  
+		  if (alarmFlash)
+		  {
+			  alarmFlash = false;
+		  }
+		  else
+		  {
+			  alarmFlash = true;
+		  }
         
-				  SmartDashboard.putBoolean("Low Battery", alarmFlash);
+		  DashboardCache.putBoolean("Low Battery", alarmFlash);
         
-				  Timer.delay(1.0);
-			  }
-			  else
-			  {
-				  SmartDashboard.putBoolean("Low Battery", false);
+		  delay = 1.0;
+	  }
+	  else
+	  {
+		  if (lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBatteryCleared, voltage);
+		  
+		  lowBatteryAlarm = false;
+		  
+		  DashboardCache.putBoolean("Low Battery", false);
         
-				  Timer.delay(10.0);
-			  }
-          }
+		  delay = 10.0;
 	  }
-	  catch (Throwable e)	{Util.logException(e);}
   }
 }
\ No newline at end of file
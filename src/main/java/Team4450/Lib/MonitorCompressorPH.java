@@ -4,26 +4,32 @@ package Team4450.Lib;
 import edu.wpi.first.util.sendable.Sendable;
 import edu.wpi.first.util.sendable.SendableBuilder;
 import edu.wpi.first.util.sendable.SendableRegistry;
-import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.PneumaticsModuleType;
-import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import edu.wpi.first.wpilibj.Compressor;
+import Team4450.Lib.MonitorEvent.MonitorEventType;
 
 /**
  * Compressor monitoring task. For REV Pneumatic Hub only.
- * Runs as a separate thread from our MyRobot class. Runs until our
+ * Runs on the shared {@link MonitorScheduler} thread. Runs until our
  * program is terminated from the RoboRio. Displays compressor on/off
  * LED on DS. Can also monitor an air pressure sensor and report the
- * pressure to the DS. Assumes compressor is plugged into the first
- * PH, CAN id 1.
+ * pressure to the DS. Changes are raised as {@link MonitorEvent}s to a
+ * registered listener and dashboard values are only written when they change.
+ * Assumes compressor is plugged into the first PH, CAN id 1.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * the compressor is being monitored.
  */
 
 public class MonitorCompressorPH extends Thread implements Sendable
 {
   private final Compressor			compressor;
   private double					delay = 2.0, lowPressureThreshold = 0.0, correction = 0.0;
-  private boolean					lowPressureAlarm = false, ledState = false, compressorState;
+  private boolean					lowPressureAlarm = false, ledState = false, compressorState, saveState = false;
+  private MonitorScheduler.Task		task;
+  private volatile MonitorEventListener	eventListener;
   
   /**
    * Static reference to the internal MonitorCompressorPH instance created by
@@ -63,7 +69,7 @@ public class MonitorCompressorPH extends Thread implements Sendable
 	  
 	  this.setName("MonitorCompressorPH");
 
-	  SmartDashboard.putBoolean("LowPressure", false);
+	  DashboardCache.putBoolean("LowPressure", false);
 	  
 	  SendableRegistry.addLW(this, "MonitorCompressorPH", 1);
   }
@@ -125,59 +131,111 @@ public class MonitorCompressorPH extends Thread implements Sendable
   }
   
   /**
-   * Start monitoring. Called by Thread.start().
+   * Register a MonitorEventListener object instance to receive events. Events are
+   * raised when the compressor turns on or off and when the low pressure alarm
+   * is set or cleared.
+   * @param listener MonitorEventListener object instance to receive events.
+   */
+  public void setMonitorEventListener(MonitorEventListener listener)
+  {
+	  eventListener = listener;
+  }
+  
+  private void notifyEventListener(MonitorEventType eventType, Object eventData)
+  {
+	  MonitorEventListener listener = eventListener;
+	  
+	  if (listener != null)
+	  {
+		  MonitorEvent event = new MonitorEvent(this, eventType, eventData);
+		  
+		  MonitorScheduler.INSTANCE.dispatch(() -> listener.event(event));
+	  }
+  }
+  
+  /**
+   * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+   * instead of starting a thread.
+   */
+  @Override
+  public synchronized void start()
+  {
+	  Util.consoleLog();
+	  
+	  if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> delay);
+  }
+  
+  /**
+   * Stop monitoring. Cancels the scheduled task.
+   */
+  @Override
+  public synchronized void interrupt()
+  {
+	  if (task != null) task.cancel();
+	  
+	  task = null;
+  }
+  
+  /**
+   * Returns true if the monitor has been started and not stopped.
+   * @return True if monitoring.
+   */
+  public synchronized boolean isRunning()
+  {
+	  return task != null;
+  }
+  
+  /**
+   * Run one monitoring cycle. Called by the MonitorScheduler after start().
    */
   public void run()
   {      
-	boolean	saveState = false;
 	double	pressure;
 	
-	try
+	compressorState = compressor.isEnabled();
+	
+	if (compressorState != saveState)
 	{
-		Util.consoleLog();
-
-		while (!isInterrupted())
+		saveState = compressorState;
+		DashboardCache.putBoolean("Compressor", saveState);
+		Util.consoleLog("compressor on=%b", saveState);
+		notifyEventListener(saveState ? MonitorEventType.compressorOn : MonitorEventType.compressorOff, saveState);
+	}
+	
+	pressure = getPressure();			
+	
+	DashboardCache.putNumber("AirPressure", (int) pressure);
+	
+	if (lowPressureThreshold > 0)
+	{
+		if (pressure <= lowPressureThreshold)
 		{
-			compressorState = compressor.isEnabled();
-			
-			if (compressorState != saveState)
+			if (!lowPressureAlarm)
 			{
-				saveState = compressorState;
-				SmartDashboard.putBoolean("Compressor", saveState);
-				Util.consoleLog("compressor on=%b", saveState);
+				Util.reportError("low air pressure alarm: %dpsi", (int) pressure);
+				notifyEventListener(MonitorEventType.lowPressure, pressure);
 			}
-			
-			pressure = getPressure();			
-			
-			SmartDashboard.putNumber("AirPressure", (int) pressure);
-		
-			if (lowPressureThreshold > 0)
-			{
-				if (pressure <= lowPressureThreshold)
-				{
-					if (!lowPressureAlarm) DriverStation.reportError(String.format("low air pressure alarm: %dpsi", (int) pressure), false);
-
-					lowPressureAlarm = true;
-				}
-				else
-				{
-					if (lowPressureAlarm) DriverStation.reportError("low air pressure alarm cleared", false);
-					
-					lowPressureAlarm = false;
-				}
-				
-				if (lowPressureAlarm)
-					ledState = !ledState;
-				else
-					ledState = false;
 
-				SmartDashboard.putBoolean("LowPressure", ledState);
+			lowPressureAlarm = true;
+		}
+		else
+		{
+			if (lowPressureAlarm)
+			{
+				Util.reportError("low air pressure alarm cleared");
+				notifyEventListener(MonitorEventType.lowPressureCleared, pressure);
 			}
 			
-			Timer.delay(delay);
+			lowPressureAlarm = false;
 		}
+		
+		if (lowPressureAlarm)
+			ledState = !ledState;
+		else
+			ledState = false;
+
+		DashboardCache.putBoolean("LowPressure", ledState);
 	}
-	catch (Throwable e) {Util.logException(e);}
   }
 	
   @Override
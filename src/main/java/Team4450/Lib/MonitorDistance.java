@@ -1,7 +1,6 @@
 
 package Team4450.Lib;
 
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.Ultrasonic;
 import edu.wpi.first.util.sendable.Sendable;
 import edu.wpi.first.util.sendable.SendableBuilder;
@@ -10,10 +9,15 @@ import edu.wpi.first.wpilibj.RobotBase;
 
 /**
  * Task to monitor ultrasonic sensor and report distance to driver station.
- * Runs as a thread separate from Robot class. Runs until our
+ * Runs on the shared {@link MonitorScheduler} thread. Runs until our
  * program is terminated from the RoboRio.
  * Displays distance value on DS.
  * Uses old style ultrasonic sensor.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * the sensor is being read.
  */
 
 public class MonitorDistance extends Thread implements Sendable
@@ -21,6 +25,7 @@ public class MonitorDistance extends Thread implements Sendable
     RobotBase 			robot;
     private Ultrasonic	ultra;
     private double		delay = 1.0;	// seconds.
+    private MonitorScheduler.Task	task;
 
 	private double		rangeInches;
 	private double		rangeFeet;
@@ -161,26 +166,52 @@ public class MonitorDistance extends Thread implements Sendable
     	return rangeInches;
     }
 
+    /**
+     * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+     * instead of starting a thread.
+     */
+    @Override
+    public synchronized void start()
+    {
+    	Util.consoleLog();
+    	
+    	Ultrasonic.setAutomaticMode(true);
+    	
+    	if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> delay);
+    }
+    
+    /**
+     * Stop monitoring. Cancels the scheduled task.
+     */
+    @Override
+    public synchronized void interrupt()
+    {
+    	if (task != null) task.cancel();
+    	
+    	task = null;
+    }
+    
+    /**
+     * Returns true if the monitor has been started and not stopped.
+     * @return True if monitoring.
+     */
+    public synchronized boolean isRunning()
+    {
+    	return task != null;
+    }
+    
+    /**
+     * Run one monitoring cycle. Called by the MonitorScheduler after start().
+     */
     public void run()
     {
-		try
+		if (robot.isEnabled())
 		{
-			Ultrasonic.setAutomaticMode(true);
-
-			while (!isInterrupted())
-			{
-				if (robot.isEnabled())
-				{
-					rangeInches = ultra.getRangeInches();
-					rangeFeet = rangeInches / 12;
-
-					if (rangeFeet > 55) rangeFeet = rangeInches = 0.0;
-				}
+			rangeInches = ultra.getRangeInches();
+			rangeFeet = rangeInches / 12;
 
-				Timer.delay(delay);
-			}
+			if (rangeFeet > 55) rangeFeet = rangeInches = 0.0;
 		}
-		catch (Throwable e) {Util.logException(e);}
 	}
 	
     @Override
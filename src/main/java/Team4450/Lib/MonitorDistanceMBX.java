@@ -6,14 +6,18 @@ import edu.wpi.first.util.sendable.SendableBuilder;
 import edu.wpi.first.util.sendable.SendableRegistry;
 import edu.wpi.first.wpilibj.AnalogInput;
 import edu.wpi.first.wpilibj.RobotBase;
-import edu.wpi.first.wpilibj.Timer;
 
 /**
  * Task to monitor ultrasonic sensor and report distance to driver station.
- * Runs as a thread separate from Robot class. Runs until our
+ * Runs on the shared {@link MonitorScheduler} thread. Runs until our
  * program is terminated from the RoboRio.
  * Displays distance value on DS.
  * Uses MaxBotix ultrasonic sensor.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * the sensor is being read.
  */
 
 public class MonitorDistanceMBX extends Thread implements Sendable
@@ -24,6 +28,7 @@ public class MonitorDistanceMBX extends Thread implements Sendable
 	private double			rangeInches;
 	private double			rangeFeet;
 	private double			delay = 1.0;	// Seconds.
+	private MonitorScheduler.Task	task;
 	  
 	/**
 	 * Static reference to the internal MonitorDistanceMBX instance created by
@@ -169,27 +174,50 @@ public class MonitorDistanceMBX extends Thread implements Sendable
     	return rangeInches;
     }
     
+    /**
+     * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+     * instead of starting a thread.
+     */
+    @Override
+    public synchronized void start()
+    {
+    	Util.consoleLog();
+    	
+    	if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> delay);
+    }
+    
+    /**
+     * Stop monitoring. Cancels the scheduled task.
+     */
+    @Override
+    public synchronized void interrupt()
+    {
+    	if (task != null) task.cancel();
+    	
+    	task = null;
+    }
+    
+    /**
+     * Returns true if the monitor has been started and not stopped.
+     * @return True if monitoring.
+     */
+    public synchronized boolean isRunning()
+    {
+    	return task != null;
+    }
+    
+    /**
+     * Run one monitoring cycle. Called by the MonitorScheduler after start().
+     */
     public void run()
     {
-		try
+		if (robot.isEnabled())
 		{
-			Util.consoleLog();
-
-			while (!isInterrupted())
-			{
-				if (robot.isEnabled())
-				{
-					rangeInches = ultra.getVoltage() / .0098;
-					rangeFeet = rangeInches / 12;
-
-					if (rangeFeet > 20) rangeInches = rangeFeet = 0.0;
-				}
-				else
+			rangeInches = ultra.getVoltage() / .0098;
+			rangeFeet = rangeInches / 12;
 
-				Timer.delay(delay);
-			}
+			if (rangeFeet > 20) rangeInches = rangeFeet = 0.0;
 		}
-		catch (Throwable e) {Util.logException(e);}
 	}
 	
     @Override
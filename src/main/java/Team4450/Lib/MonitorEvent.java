@@ -0,0 +1,48 @@
+package Team4450.Lib;
+
+import java.util.EventObject;
+
+/**
+ *  Event description class returned to a {@link MonitorEventListener} by the
+ *  Monitor* classes. Events are raised only when a monitored state changes and
+ *  are delivered on the MonitorEvents thread, not the monitor sampling thread.
+ */
+public class MonitorEvent extends EventObject
+{
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Monitor event type enumeration. Event data is the voltage (Double) for the
+	 * battery events, the pressure (Double) for the pressure events and the
+	 * compressor state (Boolean) for the compressor events.
+	 */
+	public enum MonitorEventType
+	{
+		lowBattery,
+		lowBatteryCleared,
+		overload,
+		overloadCleared,
+		brownout,
+		brownoutCleared,
+		lowPressure,
+		lowPressureCleared,
+		compressorOn,
+		compressorOff;
+	}
+
+	public MonitorEventType	eventType;
+	public Object			eventData;
+
+	public MonitorEvent(Object source, MonitorEventType eventType, Object eventData)
+	{
+		super(source);
+		this.eventType = eventType;
+		this.eventData = eventData;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s %s", eventType, eventData);
+	}
+}
@@ -0,0 +1,11 @@
+package Team4450.Lib;
+
+import java.util.EventListener;
+
+/**
+ *  Java Interface definition for Monitor* class event listener.
+ */
+public interface MonitorEventListener extends EventListener
+{
+	public void event(MonitorEvent monitorEvent);
+}
@@ -4,17 +4,25 @@ package Team4450.Lib;
 import edu.wpi.first.util.sendable.Sendable;
 import edu.wpi.first.util.sendable.SendableBuilder;
 import edu.wpi.first.util.sendable.SendableRegistry;
-import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.PowerDistribution;
 import edu.wpi.first.wpilibj.RobotController;
-import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import Team4450.Lib.MonitorEvent.MonitorEventType;
 
 /**
  * CTRE/REV Power Distribution Panel/Hub monitoring task. Monitors battery
- * voltage, current draw (overload) and brownout. Logs warnings to
- * console and shuffleboard LEDs. Runs as a separate thread from the 
- * Robot class. Runs until robot program is terminated.
+ * voltage, current draw (overload) and brownout. Logs warnings to the
+ * console. Voltage, current and alarms are published by the
+ * {@link MetricsRegistry} (and by this class as a Sendable). Runs on the shared
+ * {@link MonitorScheduler} thread. Runs until robot program is terminated.
+ * Each cycle reads the module once into a {@link PowerSnapshot}, the latest
+ * snapshot is available to robot code from getSnapshot(). Brownouts can be
+ * predicted before they happen with enableBrownoutPrediction(). Alarm changes
+ * are raised as {@link MonitorEvent}s to a registered listener.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * the PDP/PDH is being sampled.
  */
 
 public class MonitorPDP extends Thread implements Sendable
@@ -25,8 +33,15 @@ public class MonitorPDP extends Thread implements Sendable
   private PowerDistribution			pdp;
   private double					sampleInterval = 1.0;	// Seconds
   private boolean					alarmInProgress = false, lowBatteryAlarm = false, overloadAlarm = false;
+  private boolean					brownedOut = false;
+  private volatile MonitorEventListener	eventListener;
   private boolean					ports[] = new boolean[24];
+  private volatile PowerSnapshot	snapshot = PowerSnapshot.EMPTY;
+  private volatile PowerAnalytics	analytics;
+  private volatile BrownoutPredictor	brownoutPredictor;
   private int						numPorts;
+  private MonitorScheduler.Task		task;
+  private String					portWarnings[] = new String[24];
   
   /**
    * Static reference to the internal MonitorPDP instance created by
@@ -80,6 +95,9 @@ public class MonitorPDP extends Thread implements Sendable
 	  this.setName("MonitorPDP");
       
 	  SendableRegistry.addLW(this, "MonitorPDP");
+	  
+	  initPortWarnings();
+	  registerMetrics();
   }
 
   private MonitorPDP(PowerDistribution pdp)
@@ -91,6 +109,29 @@ public class MonitorPDP extends Thread implements Sendable
 	  this.setName("MonitorPDP");
       
 	  SendableRegistry.addLW(this, "MonitorPDP");
+	  
+	  initPortWarnings();
+	  registerMetrics();
+  }
+  
+  // Registers voltage, current and alarm state with the MetricsRegistry.
+  private void registerMetrics()
+  {
+	  MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+	  
+	  metrics.gauge("MonitorPDP/Voltage", () -> snapshot.getVoltage());
+	  metrics.gauge("MonitorPDP/TotalCurrent", () -> snapshot.getTotalCurrent());
+	  
+	  metrics.gauge("MonitorPDP/LowBatteryAlarm", () -> lowBatteryAlarm ? 1 : 0);
+	  metrics.gauge("MonitorPDP/OverloadAlarm", () -> overloadAlarm ? 1 : 0);
+  }
+  
+  // Each port gets its own warning format so Util.reportError() suppresses
+  // repeats per port.
+  private void initPortWarnings()
+  {
+	  for (int i = 0; i < portWarnings.length; i++)
+		  portWarnings[i] = "pdp port " + i + " current warning: %.1f amps";
   }
  
   /**
@@ -113,6 +154,70 @@ public class MonitorPDP extends Thread implements Sendable
 	  return sampleInterval;
   }
 
+  /**
+   * Returns the PDP/PDH state read in the last sample cycle. Use this instead of
+   * reading the PDP again in the same robot loop.
+   * @return The last snapshot, PowerSnapshot.EMPTY before the first sample.
+   */
+  
+  public PowerSnapshot getSnapshot()
+  {
+	  return snapshot;
+  }
+
+  /**
+   * Turn on power analytics. Each sample cycle's snapshot is added to a
+   * {@link PowerAnalytics} object that accounts energy use per channel. Set the
+   * sample interval to .1 second or less for useful energy numbers.
+   * @param window Number of samples in the per channel rolling average current.
+   * @param logDecimation Write the analytics to the DataLog every logDecimation
+   * samples, zero for no DataLog.
+   * @return The PowerAnalytics object.
+   */
+  
+  public PowerAnalytics enableAnalytics(int window, int logDecimation)
+  {
+	  analytics = new PowerAnalytics(pdp.getNumChannels(), window, logDecimation);
+	  
+	  return analytics;
+  }
+  
+  /**
+   * Returns the power analytics object.
+   * @return The PowerAnalytics object, null if analytics not enabled.
+   */
+  
+  public PowerAnalytics getAnalytics()
+  {
+	  return analytics;
+  }
+
+  /**
+   * Turn on brownout prediction. Each sample cycle's voltage and total current
+   * are added to a {@link BrownoutPredictor} that fits the battery resistance and
+   * raises an event when the load is predicted to sag the voltage below the
+   * threshold. Set the sample interval to .05 second or less for useful predictions.
+   * @param threshold Voltage below which a brownout is predicted. 7 is a good start.
+   * @return The BrownoutPredictor object, register a listener on it to shed load.
+   */
+  
+  public BrownoutPredictor enableBrownoutPrediction(double threshold)
+  {
+	  brownoutPredictor = new BrownoutPredictor().withThreshold(threshold);
+	  
+	  return brownoutPredictor;
+  }
+  
+  /**
+   * Returns the brownout predictor object.
+   * @return The BrownoutPredictor object, null if prediction not enabled.
+   */
+  
+  public BrownoutPredictor getBrownoutPredictor()
+  {
+	  return brownoutPredictor;
+  }
+
   /**
    * Enable PDP/PDH port to be monitored. 0-15 for PDP, 0-23 for PDH.
    * @param port Port number 0..23.
@@ -160,116 +265,167 @@ public class MonitorPDP extends Thread implements Sendable
    */
   public void reset()
   {
+	  if (lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBatteryCleared, snapshot.getVoltage());
+	  if (overloadAlarm) notifyEventListener(MonitorEventType.overloadCleared, snapshot.getVoltage());
+	  
 	  alarmInProgress = false;
 	  lowBatteryAlarm = false;
 	  overloadAlarm = false;
   }
   
   /**
-   * Start monitoring. Called by Thread.start().
+   * Register a MonitorEventListener object instance to receive events. Events are
+   * raised when an alarm is set or reset and when brownout starts or ends.
+   * @param listener MonitorEventListener object instance to receive events.
+   */
+  public void setMonitorEventListener(MonitorEventListener listener)
+  {
+	  eventListener = listener;
+  }
+  
+  private void notifyEventListener(MonitorEventType eventType, Object eventData)
+  {
+	  MonitorEventListener listener = eventListener;
+	  
+	  if (listener != null)
+	  {
+		  MonitorEvent event = new MonitorEvent(this, eventType, eventData);
+		  
+		  MonitorScheduler.INSTANCE.dispatch(() -> listener.event(event));
+	  }
+  }
+  
+  /**
+   * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+   * instead of starting a thread.
+   */
+  @Override
+  public synchronized void start()
+  {
+	  Util.consoleLog();
+	  
+	  numPorts = pdp.getNumChannels();
+	  
+	  if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> sampleInterval);
+  }
+  
+  /**
+   * Stop monitoring. Cancels the scheduled task.
+   */
+  @Override
+  public synchronized void interrupt()
+  {
+	  if (task != null) task.cancel();
+	  
+	  task = null;
+  }
+  
+  /**
+   * Returns true if the monitor has been started and not stopped.
+   * @return True if monitoring.
+   */
+  public synchronized boolean isRunning()
+  {
+	  return task != null;
+  }
+  
+  /**
+   * Run one monitoring cycle. Called by the MonitorScheduler after start().
    */
   public void run()
   {        
-	  boolean alarmFlash = false, alarmInProgress = false;
-	  boolean alarmFlash2 = false;
-
-	  try
+	  // Check battery voltage, max current and brownout every cycle. Alarms do not reset
+	  // until reset() is called.
+        
+	  //alarmInProgress = false;
+	  
+	  // Read the whole module once, all checks use this snapshot.
+	  
+	  PowerSnapshot snapshot = PowerSnapshot.read(pdp);
+	  
+	  this.snapshot = snapshot;
+	  
+	  PowerAnalytics analytics = this.analytics;
+	  
+	  if (analytics != null) analytics.update(snapshot);
+	  
+	  BrownoutPredictor brownoutPredictor = this.brownoutPredictor;
+	  
+	  if (brownoutPredictor != null) brownoutPredictor.update(snapshot);
+	  
+	  // Check PDP input voltage.
+	  
+	  if (snapshot.getVoltage() < LOW_BATTERY)
+	  {
+		  Util.reportError("battery voltage warning: %.2fv", snapshot.getVoltage());
+	  
+		  if (!lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBattery, snapshot.getVoltage());
+		  
+		  alarmInProgress = true;
+		  lowBatteryAlarm = true;
+	  } //else
+		  //lowBatteryAlarm = false;
+	  
+	  // Check PDP total current flow.
+	  
+	  if (snapshot.getTotalCurrent() > MAX_CURRENT)
 	  {
-		  Util.consoleLog();
+		  Util.reportError("battery total current warning: %.1f amps", snapshot.getTotalCurrent());
+	  
+		  if (!overloadAlarm) notifyEventListener(MonitorEventType.overload, snapshot.getVoltage());
 		  
-		  numPorts = pdp.getNumChannels();
-        
-          // Check battery voltage, max current and brownout every second. If any problem
-		  // detected start flashing the appropriate LED on SB. Flashing does not reset.
-        
-		  while (!isInterrupted())
-          {
-			  //alarmInProgress = false;
-			  
-			  // Check PDP input voltage.
-			  
-			  if (pdp.getVoltage() < LOW_BATTERY)
-			  {
-				  DriverStation.reportError(String.format("battery voltage warning: %.2fv", pdp.getVoltage()), false);
-			  
-				  alarmInProgress = true;
-				  lowBatteryAlarm = true;
-			  } //else
-				  //lowBatteryAlarm = false;
-			  
-			  // Check PDP total current flow.
-			  
-			  if (pdp.getTotalCurrent() > MAX_CURRENT)
-			  {
-				  DriverStation.reportError(String.format("battery total current warning: %.1f amps", pdp.getTotalCurrent()), false);
-			  
-				  alarmInProgress = true;
-				  overloadAlarm = true;
-			  } //else
-				  //overloadAlarm = false;
-			  
-			  // check the PDP output port current levels for enabled ports.
-			  
-			  if (numPorts == 16)
-				  for (int i = 0; i < 16; i++)
-				  {
-					  if (ports[i])
-	    				  if (((i < 4 && i > 11) && pdp.getCurrent(i) > 40) | ((i > 3 && i < 12) && pdp.getCurrent(i) > 30))
-	    					  DriverStation.reportError(String.format("pdp port %d current warning: %.1f amps", i,  pdp.getCurrent(i)), false);
-				  }
-			  else
-				  for (int i = 0; i < 24; i++)
-				  {
-					  if (ports[i])
-	    				  if (pdp.getCurrent(i) > 40)
-	    					  DriverStation.reportError(String.format("pdp port %d current warning: %.1f amps", i,  pdp.getCurrent(i)), false);
-				  }	  
-			  
-			  // Check driver station brownout flag.
+		  alarmInProgress = true;
+		  overloadAlarm = true;
+	  } //else
+		  //overloadAlarm = false;
+	  
+	  // check the PDP output port current levels for enabled ports.
+	  
+	  if (numPorts == 16)
+		  for (int i = 0; i < 16; i++)
+		  {
+			  double current = snapshot.getCurrent(i);
 			  
-			  if (RobotController.isBrownedOut())
-			  {
-				  DriverStation.reportError(String.format("brownout warning: %.1fv", pdp.getVoltage()), false);
+			  if (ports[i])
+				  if (((i < 4 && i > 11) && current > 40) | ((i > 3 && i < 12) && current > 30))
+					  Util.reportError(portWarnings[i], current);
+		  }
+	  else
+		  for (int i = 0; i < Math.min(24, snapshot.getNumChannels()); i++)
+		  {
+			  double current = snapshot.getCurrent(i);
 			  
-				  alarmInProgress = true;
-				  overloadAlarm = true;
-			  } //else
-				  //overloadAlarm = false;
-				  
-			  // flash DS leds for alarms.
+			  if (ports[i])
+				  if (current > 40)
+					  Util.reportError(portWarnings[i], current);
+		  }	  
+	  
+	  // Check driver station brownout flag. Events and the flight recorder dump
+	  // happen when brownout starts and ends, not every cycle.
+	  
+	  if (RobotController.isBrownedOut())
+	  {
+		  Util.reportError("brownout warning: %.1fv", snapshot.getVoltage());
+		  
+		  if (!brownedOut)
+		  {
+			  Util.dumpFlightRecorder("brownout");
 			  
-			  if (alarmInProgress && lowBatteryAlarm)
-			  {
-				  if (alarmFlash)
-					  alarmFlash = false;
-				  else
-					  alarmFlash = true;
-        
-				  SmartDashboard.putBoolean("Low Battery", alarmFlash);
-        	  }
-			  else
-			  {
-				  SmartDashboard.putBoolean("Low Battery", false);
-        	  }
+			  notifyEventListener(MonitorEventType.brownout, snapshot.getVoltage());
 			  
-    		  if (alarmInProgress && overloadAlarm)
-    		  {
-    			  if (alarmFlash2)
-    				  alarmFlash2 = false;
-    			  else
-    				  alarmFlash2 = true;
-        
-    			  SmartDashboard.putBoolean("Overload", alarmFlash2);
-        	  }
-    		  else
-    		  {
-    			  SmartDashboard.putBoolean("Overload", false);
-        	  }
-
-			  Timer.delay(sampleInterval);
-          }
+			  if (!overloadAlarm) notifyEventListener(MonitorEventType.overload, snapshot.getVoltage());
+		  }
+	  
+		  brownedOut = true;
+		  alarmInProgress = true;
+		  overloadAlarm = true;
+	  }
+	  else if (brownedOut)
+	  {
+		  brownedOut = false;
+		  
+		  notifyEventListener(MonitorEventType.brownoutCleared, snapshot.getVoltage());
 	  }
-	  catch (Throwable e) {Util.logException(e);}
   }
   
 	
@@ -278,8 +434,8 @@ public class MonitorPDP extends Thread implements Sendable
   {
 	  builder.setSmartDashboardType("MonitorPDP");
   	  builder.addBooleanProperty(".controllable", () -> false, null);
-  	  builder.addDoubleProperty("Voltage", () -> pdp.getVoltage(), null);
-  	  builder.addDoubleProperty("TotalCurrent", () -> pdp.getTotalCurrent(), null);
+  	  builder.addDoubleProperty("Voltage", () -> snapshot.getVoltage(), null);
+  	  builder.addDoubleProperty("TotalCurrent", () -> snapshot.getTotalCurrent(), null);
   	  builder.addBooleanProperty("LowBatteryAlarm", () -> lowBatteryAlarm, null);
   	  builder.addBooleanProperty("BrownOutAlarm", () -> overloadAlarm, null);
   }
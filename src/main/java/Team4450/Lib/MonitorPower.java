@@ -3,16 +3,21 @@ package Team4450.Lib;
 import edu.wpi.first.util.sendable.Sendable;
 import edu.wpi.first.util.sendable.SendableBuilder;
 import edu.wpi.first.util.sendable.SendableRegistry;
-import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.PowerDistribution;
 import edu.wpi.first.wpilibj.RobotController;
-import edu.wpi.first.wpilibj.Timer;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+import Team4450.Lib.MonitorEvent.MonitorEventType;
 
 /**
  * RoboRio monitoring task. Monitors battery voltage and brownout. Logs warnings to
- * console and shuffleboard LEDs. Runs as a separate thread from the 
- * Robot class. Runs until robot program is terminated.
+ * the console. Voltage and alarms are published by the {@link MetricsRegistry}
+ * (and by this class as a Sendable). Runs on the shared {@link MonitorScheduler}
+ * thread. Runs until robot program is terminated. Alarm changes are raised
+ * as {@link MonitorEvent}s to a registered listener.
+ * <p>
+ * Extends Thread for compatibility but no thread is ever started: isAlive() is
+ * always false and join() returns at once. interrupt() cancels the scheduled
+ * task and a later start() schedules a new one. isRunning() tells if
+ * power is being monitored.
  */
 
 public class MonitorPower extends Thread implements Sendable
@@ -22,6 +27,11 @@ public class MonitorPower extends Thread implements Sendable
   private double			  		lowVoltage = 9, maxCurrent = 240;
   private double					sampleInterval = 1.0;	// Seconds
   private boolean					alarmInProgress = false, lowBatteryAlarm = false, overloadAlarm = false;
+  private boolean					brownedOut = false;
+  private volatile double			voltage;
+  private MetricsRegistry.Gauge		voltageGauge;
+  private volatile MonitorEventListener	eventListener;
+  private MonitorScheduler.Task		task;
   
   /**
    * Static reference to the internal MonitorPower instance created by
@@ -56,6 +66,19 @@ public class MonitorPower extends Thread implements Sendable
 	  this.setName("MonitorPower");
       
 	  SendableRegistry.addLW(this, "MonitorPower");
+	  
+	  registerMetrics();
+  }
+  
+  // Registers voltage and alarm state with the MetricsRegistry.
+  private void registerMetrics()
+  {
+	  MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+	  
+	  voltageGauge = metrics.gauge("MonitorPower/Voltage");
+	  
+	  metrics.gauge("MonitorPower/LowBatteryAlarm", () -> lowBatteryAlarm ? 1 : 0);
+	  metrics.gauge("MonitorPower/OverloadAlarm", () -> overloadAlarm ? 1 : 0);
   }
   
   /**
@@ -91,11 +114,36 @@ public class MonitorPower extends Thread implements Sendable
    */
   public void reset()
   {
+	  if (lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBatteryCleared, voltage);
+	  if (overloadAlarm) notifyEventListener(MonitorEventType.overloadCleared, voltage);
+	  
 	  alarmInProgress = false;
 	  lowBatteryAlarm = false;
 	  overloadAlarm = false;
   }
   
+  /**
+   * Register a MonitorEventListener object instance to receive events. Events are
+   * raised when an alarm is set or reset and when brownout starts or ends.
+   * @param listener MonitorEventListener object instance to receive events.
+   */
+  public void setMonitorEventListener(MonitorEventListener listener)
+  {
+	  eventListener = listener;
+  }
+  
+  private void notifyEventListener(MonitorEventType eventType, Object eventData)
+  {
+	  MonitorEventListener listener = eventListener;
+	  
+	  if (listener != null)
+	  {
+		  MonitorEvent event = new MonitorEvent(this, eventType, eventData);
+		  
+		  MonitorScheduler.INSTANCE.dispatch(() -> listener.event(event));
+	  }
+  }
+  
   /**
    * Set RoboRio power sampling interval. Also controls the alarm flash time.
    * @param interval Sampling interval in seconds, defaults to 1.
@@ -121,80 +169,88 @@ public class MonitorPower extends Thread implements Sendable
   }
   
   /**
-   * Start monitoring thread. Called by Thread.start().
+   * Start monitoring. Schedules this monitor on the shared {@link MonitorScheduler}
+   * instead of starting a thread.
+   */
+  @Override
+  public synchronized void start()
+  {
+	  Util.consoleLog();
+	  
+	  if (task == null) task = MonitorScheduler.INSTANCE.schedule(getName(), this::run, () -> sampleInterval);
+  }
+  
+  /**
+   * Stop monitoring. Cancels the scheduled task.
+   */
+  @Override
+  public synchronized void interrupt()
+  {
+	  if (task != null) task.cancel();
+	  
+	  task = null;
+  }
+  
+  /**
+   * Returns true if the monitor has been started and not stopped.
+   * @return True if monitoring.
+   */
+  public synchronized boolean isRunning()
+  {
+	  return task != null;
+  }
+  
+  /**
+   * Run one monitoring cycle. Called by the MonitorScheduler after start().
    */
   public void run()
   {        
-	  boolean alarmFlash = false, alarmInProgress = false;
-	  boolean alarmFlash2 = false;
-
-	  try
+	  // Check battery voltage and brownout every cycle. Alarms do not reset
+	  // until reset() is called.
+	  
+	  // Check RoboRio input voltage.
+	  
+	  voltage = RobotController.getBatteryVoltage();
+	  
+	  voltageGauge.set(voltage);
+	  
+	  if (voltage <= lowVoltage)
 	  {
-		  Util.consoleLog();
-        
-          // Check battery voltage and brownout every second. If any problem
-		  // detected start flashing the appropriate LED on SB. Flashing does not reset.
-        
-		  while (!isInterrupted())
-          {		  
-			  // Check RoboRio input voltage.
-			  
-			  double voltage = RobotController.getBatteryVoltage();
-			  
-			  if (voltage <= lowVoltage)
-			  {
-				  DriverStation.reportError(String.format("battery voltage warning: %.2fv", voltage), false);
-			  
-				  alarmInProgress = true;
-				  lowBatteryAlarm = true;
-			  } //else
-				  //lowBatteryAlarm = false;
-			  			  			  
-			  // Check driver station brownout flag.
-			  
-			  if (RobotController.isBrownedOut())
-			  {
-				  DriverStation.reportError(String.format("brownout warning: %.1fv", voltage), false);
-			  
-				  alarmInProgress = true;
-				  overloadAlarm = true;
-			  } //else
-				  //overloadAlarm = false;
-				  
-			  // flash DS leds for alarms.
+		  Util.reportError("battery voltage warning: %.2fv", voltage);
+	  
+		  if (!lowBatteryAlarm) notifyEventListener(MonitorEventType.lowBattery, voltage);
+		  
+		  alarmInProgress = true;
+		  lowBatteryAlarm = true;
+	  } //else
+		  //lowBatteryAlarm = false;
+	  
+	  // Check driver station brownout flag. Events and the flight recorder dump
+	  // happen when brownout starts and ends, not every cycle.
+	  
+	  if (RobotController.isBrownedOut())
+	  {
+		  Util.reportError("brownout warning: %.1fv", voltage);
+		  
+		  if (!brownedOut)
+		  {
+			  Util.dumpFlightRecorder("brownout");
 			  
-			  if (alarmInProgress && lowBatteryAlarm)
-			  {
-				  if (alarmFlash)
-					  alarmFlash = false;
-				  else
-					  alarmFlash = true;
-        
-				  SmartDashboard.putBoolean("Low Battery", alarmFlash);
-        	  }
-			  else
-			  {
-				  SmartDashboard.putBoolean("Low Battery", false);
-        	  }
+			  notifyEventListener(MonitorEventType.brownout, voltage);
 			  
-    		  if (alarmInProgress && overloadAlarm)
-    		  {
-    			  if (alarmFlash2)
-    				  alarmFlash2 = false;
-    			  else
-    				  alarmFlash2 = true;
-        
-    			  SmartDashboard.putBoolean("Overload", alarmFlash2);
-        	  }
-    		  else
-    		  {
-    			  SmartDashboard.putBoolean("Overload", false);
-        	  }
-
-			  Timer.delay(sampleInterval);
-          }
+			  if (!overloadAlarm) notifyEventListener(MonitorEventType.overload, voltage);
+		  }
+	  
+		  brownedOut = true;
+		  alarmInProgress = true;
+		  overloadAlarm = true;
+	  }
+	  else if (brownedOut)
+	  {
+		  brownedOut = false;
+		  
+		  notifyEventListener(MonitorEventType.brownoutCleared, voltage);
 	  }
-	  catch (Throwable e) {Util.logException(e);}
   }
   
 	
@@ -0,0 +1,254 @@
+package Team4450.Lib;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Runs the Monitor* classes as periodic tasks on one shared thread instead of a
+ * thread per monitor. Each task runs one sample cycle of its monitor and is then
+ * scheduled again after the monitor's current sample interval, so interval changes
+ * take effect on the next cycle. A task that throws is logged and not run again,
+ * as a monitor thread would have ended.
+ * <p>
+ * The execution time and lateness (how long after its due time a cycle started) of
+ * each task are recorded in {@link LatencyHistogram}s and published by the
+ * {@link MetricsRegistry} under Monitors/name. When JFR events are enabled each
+ * cycle is also recorded as a {@link JfrEvents.MonitorSample} event.
+ * <p>
+ * Monitor events ({@link MonitorEvent}) are delivered to listeners on a separate
+ * MonitorEvents thread with dispatch(), so a slow listener does not delay sampling.
+ * <p>
+ * The monitors use this class when their start() method is called, robot code
+ * does not normally need to use it directly.
+ */
+public class MonitorScheduler
+{
+	// Singleton class pattern single instance.
+	public static final MonitorScheduler INSTANCE = new MonitorScheduler();
+
+	private final ScheduledThreadPoolExecutor	executor;
+	private final ExecutorService				eventExecutor;
+	private final List<Task>					tasks = new CopyOnWriteArrayList<Task>();
+
+	private MonitorScheduler()
+	{
+		executor = new ScheduledThreadPoolExecutor(1, r ->
+		{
+			Thread thread = new Thread(r, "MonitorScheduler");
+
+			thread.setDaemon(true);
+
+			return thread;
+		});
+
+		executor.setRemoveOnCancelPolicy(true);
+
+		eventExecutor = Executors.newSingleThreadExecutor(r ->
+		{
+			Thread thread = new Thread(r, "MonitorEvents");
+
+			thread.setDaemon(true);
+
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns a reference pointer to the global instance of MonitorScheduler.
+	 * @return Instance pointer.
+	 */
+	public static MonitorScheduler getInstance() { return INSTANCE; }
+
+	/**
+	 * A periodic task run by the scheduler.
+	 */
+	public final class Task implements Runnable
+	{
+		private final String			name;
+		private final Runnable			cycle;
+		private final DoubleSupplier	interval;
+		private final LatencyHistogram	executionTime = new LatencyHistogram(), lateness = new LatencyHistogram();
+		private final MetricsRegistry.Timer	executionTimer, latenessTimer;
+		private volatile boolean		cancelled;
+		private volatile ScheduledFuture<?>	future;
+		private long					due;
+
+		private Task(String name, Runnable cycle, DoubleSupplier interval)
+		{
+			this.name = name;
+			this.cycle = cycle;
+			this.interval = interval;
+
+			executionTimer = MetricsRegistry.INSTANCE.timer("Monitors/" + name + "/ExecutionTime");
+			latenessTimer = MetricsRegistry.INSTANCE.timer("Monitors/" + name + "/Lateness");
+		}
+
+		/**
+		 * Runs one cycle of the task. Called by the scheduler.
+		 */
+		@Override
+		public void run()
+		{
+			if (cancelled) return;
+
+			long start = System.nanoTime();
+
+			lateness.record(start - due);
+			latenessTimer.record(start - due);
+
+			JfrEvents.MonitorSample event = JfrEvents.ENABLED ? JfrEvents.MonitorSample.start() : null;
+
+			try
+			{
+				cycle.run();
+			}
+			catch (Throwable e)
+			{
+				Util.logException(e);
+
+				cancel();
+			}
+
+			if (event != null) event.finish(name);
+
+			long end = System.nanoTime();
+
+			executionTime.record(end - start);
+			executionTimer.record(end - start);
+
+			if (!cancelled) schedule((long) (interval.getAsDouble() * 1.0e9));
+		}
+
+		// Schedule the next cycle.
+		private synchronized void schedule(long delay)
+		{
+			due = System.nanoTime() + delay;
+
+			if (!cancelled) future = executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Stop running the task. A cycle in progress is allowed to finish.
+		 */
+		public synchronized void cancel()
+		{
+			cancelled = true;
+
+			if (future != null) future.cancel(false);
+
+			tasks.remove(this);
+		}
+
+		/**
+		 * Returns true if the task has been cancelled.
+		 * @return True if cancelled.
+		 */
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * Returns the task name.
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Returns the execution times of the task's cycles.
+		 * @return Histogram of execution times.
+		 */
+		public LatencyHistogram getExecutionTime()
+		{
+			return executionTime;
+		}
+
+		/**
+		 * Returns the time between when each cycle was due to run and when it ran.
+		 * @return Histogram of lateness.
+		 */
+		public LatencyHistogram getLateness()
+		{
+			return lateness;
+		}
+
+		/**
+		 * Returns the task statistics as text. Times are in milliseconds.
+		 * @return Statistics text.
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format("%s: run %s late %s", name, executionTime, lateness);
+		}
+	}
+
+	/**
+	 * Schedule a periodic task. The first cycle runs right away.
+	 * @param name Task name, used in metrics and logging.
+	 * @param cycle Runs one cycle of the task.
+	 * @param interval Supplies the time from the end of one cycle to the start of
+	 * the next, in seconds. Read after each cycle.
+	 * @return The task.
+	 */
+	public Task schedule(String name, Runnable cycle, DoubleSupplier interval)
+	{
+		Util.consoleLog("name=%s", name);
+
+		Task task = new Task(name, cycle, interval);
+
+		tasks.add(task);
+
+		task.schedule(0);
+
+		return task;
+	}
+
+	/**
+	 * Run an event notification on the MonitorEvents thread. Notifications run one
+	 * at a time in the order dispatched. A notification that throws is logged.
+	 * @param notification Calls the event listener.
+	 */
+	public void dispatch(Runnable notification)
+	{
+		eventExecutor.execute(() ->
+		{
+			try
+			{
+				notification.run();
+			}
+			catch (Throwable e)
+			{
+				Util.logException(e);
+			}
+		});
+	}
+
+	/**
+	 * Returns the scheduled tasks.
+	 * @return List of tasks.
+	 */
+	public List<Task> getTasks()
+	{
+		return tasks;
+	}
+
+	/**
+	 * Print the execution time and lateness statistics of each task.
+	 * @param out PrintStream to receive the list.
+	 */
+	public void printTasks(PrintStream out)
+	{
+		for (Task task : tasks) out.println(task);
+	}
+}
@@ -0,0 +1,342 @@
+package Team4450.Lib;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.wpi.first.util.sendable.Sendable;
+import edu.wpi.first.util.sendable.SendableBuilder;
+import edu.wpi.first.util.sendable.SendableRegistry;
+
+/**
+ * Thread accounting task. Samples every thread in the JVM through the ThreadMXBean
+ * and reports each thread's CPU time, CPU use, allocation rate and wakeups (times the
+ * thread blocked or waited, which includes sleeps and parks) since the last sample.
+ * Sampling reads counters the JVM already keeps, it does not take stack traces, so it
+ * is cheap enough to run every second or so on the RoboRio.
+ * <p>
+ * Samples on the shared {@link MonitorScheduler} thread between start() and stop().
+ * The per thread list is available from getThreads(), printThreadList() and as a
+ * Sendable (put it on the dashboard with SmartDashboard.putData). Totals are
+ * published by the {@link MetricsRegistry}. Can also be used without starting it
+ * by calling sample() directly.
+ */
+
+public class MonitorThreads implements Sendable
+{
+	private final ThreadMXBean							threadBean = ManagementFactory.getThreadMXBean();
+	private final com.sun.management.ThreadMXBean		extBean;
+
+	private double					sampleInterval = 1.0;	// Seconds
+	private long					lastSampleTime;
+	private Map<Long, long[]>		lastCounters = new HashMap<Long, long[]>();
+	private volatile List<ThreadStats>	threads = Collections.emptyList();
+	private volatile double			totalCpuPercent, totalAllocationRate;
+	private MonitorScheduler.Task	task;
+
+	// Indexes into the per thread counter arrays.
+	private static final int		CPU = 0, ALLOCATED = 1, WAKEUPS = 2;
+
+	/**
+	 * Static reference to the internal MonitorThreads instance created by
+	 * getInstance() calls on this class. Must call a getInstance() before using.
+	 */
+	public static MonitorThreads	INSTANCE;
+
+	/**
+	 * Statistics of one thread from the last sample. Rates are per second over the
+	 * time between the last two samples, zero after the first sample of a thread.
+	 */
+	public static final class ThreadStats
+	{
+		private final long		id;
+		private final String	name;
+		private final Thread.State	state;
+		private final long		cpuTime;
+		private final double	cpuPercent, allocationRate, wakeupRate;
+
+		private ThreadStats(long id, String name, Thread.State state, long cpuTime, double cpuPercent,
+							double allocationRate, double wakeupRate)
+		{
+			this.id = id;
+			this.name = name;
+			this.state = state;
+			this.cpuTime = cpuTime;
+			this.cpuPercent = cpuPercent;
+			this.allocationRate = allocationRate;
+			this.wakeupRate = wakeupRate;
+		}
+
+		/** @return Thread id. */
+		public long getId() { return id; }
+
+		/** @return Thread name. */
+		public String getName() { return name; }
+
+		/** @return Thread state at the sample. */
+		public Thread.State getState() { return state; }
+
+		/** @return Total CPU time used by the thread in nanoseconds, -1 if not available. */
+		public long getCpuTime() { return cpuTime; }
+
+		/** @return Percent of one CPU used by the thread since the last sample. */
+		public double getCpuPercent() { return cpuPercent; }
+
+		/** @return Bytes allocated per second since the last sample. */
+		public double getAllocationRate() { return allocationRate; }
+
+		/** @return Blocks and waits per second since the last sample. */
+		public double getWakeupRate() { return wakeupRate; }
+
+		@Override
+		public String toString()
+		{
+			return String.format("%-30s %-13s cpu %8.3fs %5.1f%%  alloc %9.1fKB/s  wakeups %7.1f/s",
+								 name, state, cpuTime / 1.0e9, cpuPercent, allocationRate / 1024, wakeupRate);
+		}
+	}
+
+	// Create single instance of this class and return that single instance to any callers.
+	// This is the singleton class model. You don't use new, you use getInstance. After that
+	// you can use the returned instance reference in a variable in your code or use the
+	// INSTANCE variable above to access the members of this class.
+
+	/**
+	 * Get a reference to global MonitorThreads object.
+	 * @return Reference to global MonitorThreads object.
+	 */
+	public static synchronized MonitorThreads getInstance()
+	{
+		if (INSTANCE == null) INSTANCE = new MonitorThreads();
+
+		return INSTANCE;
+	}
+
+	// Private constructor means callers must use getInstance.
+
+	private MonitorThreads()
+	{
+		Util.consoleLog();
+
+		if (threadBean instanceof com.sun.management.ThreadMXBean)
+			extBean = (com.sun.management.ThreadMXBean) threadBean;
+		else
+			extBean = null;
+
+		if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled())
+			threadBean.setThreadCpuTimeEnabled(true);
+
+		if (extBean != null && extBean.isThreadAllocatedMemorySupported() && !extBean.isThreadAllocatedMemoryEnabled())
+			extBean.setThreadAllocatedMemoryEnabled(true);
+
+		SendableRegistry.addLW(this, "MonitorThreads");
+
+		MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+
+		metrics.gauge("Threads/Count", () -> threads.size());
+		metrics.gauge("Threads/CpuPercent", () -> totalCpuPercent);
+		metrics.gauge("Threads/AllocationRate", () -> totalAllocationRate);
+	}
+
+	/**
+	 * Set thread sampling interval.
+	 * @param interval Sampling interval in seconds, defaults to 1.
+	 * @return This MonitorThreads object.
+	 */
+	public MonitorThreads withSampleInterval(double interval)
+	{
+		sampleInterval = interval;
+
+		return this;
+	}
+
+	/**
+	 * Take a sample of all threads now. Called every sample interval when the
+	 * monitor is running.
+	 */
+	public synchronized void sample()
+	{
+		long	now = System.nanoTime();
+		long[]	ids = threadBean.getAllThreadIds();
+
+		// Bulk reads, one call each for all threads. Thread info without stack traces.
+		ThreadInfo[]	infos = threadBean.getThreadInfo(ids, 0);
+		long[]			cpuTimes = extBean != null ? extBean.getThreadCpuTime(ids) : null;
+		long[]			allocated = extBean != null && extBean.isThreadAllocatedMemoryEnabled()
+									? extBean.getThreadAllocatedBytes(ids) : null;
+
+		double	elapsed = lastSampleTime == 0 ? 0 : (now - lastSampleTime) / 1.0e9;
+		double	cpuSum = 0, allocSum = 0;
+
+		Map<Long, long[]>		counters = new HashMap<Long, long[]>(ids.length * 2);
+		List<ThreadStats>		list = new ArrayList<ThreadStats>(ids.length);
+
+		for (int i = 0; i < ids.length; i++)
+		{
+			ThreadInfo info = infos[i];
+
+			if (info == null) continue;		// Thread ended.
+
+			long[] current = new long[3];
+
+			current[CPU] = cpuTimes != null ? cpuTimes[i] : threadBean.getThreadCpuTime(ids[i]);
+			current[ALLOCATED] = allocated != null ? allocated[i] : -1;
+			current[WAKEUPS] = info.getBlockedCount() + info.getWaitedCount();
+
+			counters.put(ids[i], current);
+
+			long[]	last = lastCounters.get(ids[i]);
+			double	cpuPercent = 0, allocationRate = 0, wakeupRate = 0;
+
+			if (last != null && elapsed > 0)
+			{
+				if (current[CPU] >= 0 && last[CPU] >= 0)
+					cpuPercent = (current[CPU] - last[CPU]) / 1.0e9 / elapsed * 100;
+
+				if (current[ALLOCATED] >= 0 && last[ALLOCATED] >= 0)
+					allocationRate = (current[ALLOCATED] - last[ALLOCATED]) / elapsed;
+
+				wakeupRate = (current[WAKEUPS] - last[WAKEUPS]) / elapsed;
+			}
+
+			cpuSum += cpuPercent;
+			allocSum += allocationRate;
+
+			list.add(new ThreadStats(ids[i], info.getThreadName(), info.getThreadState(), current[CPU],
+									 cpuPercent, allocationRate, wakeupRate));
+		}
+
+		list.sort((a, b) -> Double.compare(b.cpuPercent, a.cpuPercent));
+
+		lastCounters = counters;
+		lastSampleTime = now;
+		totalCpuPercent = cpuSum;
+		totalAllocationRate = allocSum;
+		threads = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns the thread statistics from the last sample, highest CPU use first.
+	 * @return List of thread statistics, empty if no sample taken.
+	 */
+	public List<ThreadStats> getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Returns the CPU use of all threads since the last sample.
+	 * @return Percent of one CPU, can be over 100 on a multi core processor.
+	 */
+	public double getTotalCpuPercent()
+	{
+		return totalCpuPercent;
+	}
+
+	/**
+	 * Returns the allocation rate of all threads since the last sample.
+	 * @return Bytes allocated per second.
+	 */
+	public double getTotalAllocationRate()
+	{
+		return totalAllocationRate;
+	}
+
+	/**
+	 * Print the thread statistics from the last sample, taking a sample first if
+	 * none has been taken, each followed by the thread's current stack trace.
+	 * @param out PrintStream to receive the list.
+	 */
+	public void printThreadList(PrintStream out)
+	{
+		printThreadList(out, true);
+	}
+
+	/**
+	 * Print the thread statistics from the last sample, taking a sample first if
+	 * none has been taken, optionally followed by each thread's current stack trace.
+	 * Taking stack traces pauses the threads, so don't do it every tick.
+	 * @param out PrintStream to receive the list.
+	 * @param stacks True to print each thread's stack trace.
+	 */
+	public void printThreadList(PrintStream out, boolean stacks)
+	{
+		if (lastSampleTime == 0) sample();
+
+		List<ThreadStats> list = threads;
+
+		out.println(String.format("%d threads, cpu %.1f%%, alloc %.1fKB/s", list.size(), totalCpuPercent,
+								  totalAllocationRate / 1024));
+
+		for (ThreadStats stats : list)
+		{
+			out.println(stats);
+
+			if (!stacks) continue;
+
+			ThreadInfo info = threadBean.getThreadInfo(stats.getId(), Integer.MAX_VALUE);
+
+			// Null if the thread ended since the sample.
+			if (info == null) continue;
+
+			for (StackTraceElement element : info.getStackTrace()) out.println("\t" + element);
+
+			out.println();
+		}
+	}
+
+	/**
+	 * Start sampling every sample interval on the shared {@link MonitorScheduler}.
+	 * Does nothing if already started.
+	 */
+	public synchronized void start()
+	{
+		Util.consoleLog();
+
+		if (task == null) task = MonitorScheduler.INSTANCE.schedule("MonitorThreads", this::sample, () -> sampleInterval);
+	}
+
+	/**
+	 * Stop sampling. Can be started again.
+	 */
+	public synchronized void stop()
+	{
+		if (task != null) task.cancel();
+
+		task = null;
+	}
+
+	/**
+	 * Returns true if the monitor has been started.
+	 * @return True if sampling periodically.
+	 */
+	public synchronized boolean isRunning()
+	{
+		return task != null;
+	}
+
+	@Override
+	public void initSendable( SendableBuilder builder )
+	{
+		builder.setSmartDashboardType("MonitorThreads");
+		builder.addBooleanProperty(".controllable", () -> false, null);
+		builder.addDoubleProperty("ThreadCount", () -> threads.size(), null);
+		builder.addDoubleProperty("CpuPercent", () -> totalCpuPercent, null);
+		builder.addDoubleProperty("AllocationRate", () -> totalAllocationRate, null);
+		builder.addStringArrayProperty("Threads", () ->
+		{
+			List<ThreadStats>	list = threads;
+			String[]			lines = new String[list.size()];
+
+			for (int i = 0; i < lines.length; i++) lines[i] = list.get(i).toString();
+
+			return lines;
+		}, null);
+	}
+}
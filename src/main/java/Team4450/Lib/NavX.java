@@ -89,6 +89,13 @@ public class NavX implements Sendable, PIDSource, DoubleSupplier
 		ahrs = new AHRS(portType, updateRate);
 
 		Timer.delay(1);	// delay to ensure USB port is opened.
+		
+		// Health values are cached by the AHRS IO thread so they are cheap to read
+		// from the metrics publishing thread.
+		
+		MetricsRegistry.INSTANCE.gauge("NavX/Connected", () -> ahrs.isConnected() ? 1 : 0);
+		MetricsRegistry.INSTANCE.gauge("NavX/Calibrating", () -> ahrs.isCalibrating() ? 1 : 0);
+		MetricsRegistry.INSTANCE.gauge("NavX/UpdateRate", () -> ahrs.getActualUpdateRate());
 	}
 	
 //	private NavX(PortType portType)
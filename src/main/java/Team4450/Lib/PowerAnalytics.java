@@ -0,0 +1,287 @@
+package Team4450.Lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+
+/**
+ * Power consumption accounting from {@link PowerSnapshot}s. Integrates each channel's
+ * current into amp-hours and watt-hours, tracks each channel's peak current and keeps
+ * a rolling average of each channel's current over the last samples in a primitive
+ * ring buffer. Battery totals, minimum voltage and peak total current are kept too.
+ * <p>
+ * Turned on with MonitorPDP.enableAnalytics(), which feeds it every sample cycle, so
+ * the integration is only as fine as the monitor's sample interval. Set the interval
+ * to .1 second or less for useful energy numbers. Call reset() at the start of a match
+ * and logSummary() at the end to find which mechanisms used the most energy. Every
+ * Nth sample the channel averages and energy totals are written to the DataLog under
+ * PowerAnalytics.
+ */
+public class PowerAnalytics
+{
+	private final int		channels, window, logDecimation;
+	private final String[]	names;
+	private final double[]	ampHours, wattHours, peaks, sums, ring, lastCurrents, averages;
+
+	private int				ringIndex, ringCount, sampleCount;
+	private double			startTime = Double.NaN, lastTime, lastVoltage, lastTotalCurrent;
+	private double			totalAmpHours, totalWattHours, minVoltage, peakTotalCurrent;
+
+	private final DoubleLogEntry		voltageLog, totalCurrentLog;
+	private final DoubleArrayLogEntry	averageLog, ampHourLog, wattHourLog;
+
+	/**
+	 * Create a PowerAnalytics instance.
+	 * @param channels Number of channels, 16 for PDP, 24 for PDH.
+	 * @param window Number of samples in the rolling average.
+	 * @param logDecimation Write to the DataLog every logDecimation samples, zero
+	 * to not write to the DataLog.
+	 */
+	public PowerAnalytics(int channels, int window, int logDecimation)
+	{
+		Util.consoleLog("channels=%d window=%d decimation=%d", channels, window, logDecimation);
+
+		this.channels = channels;
+		this.window = Math.max(1, window);
+		this.logDecimation = logDecimation;
+
+		names = new String[channels];
+		ampHours = new double[channels];
+		wattHours = new double[channels];
+		peaks = new double[channels];
+		sums = new double[channels];
+		lastCurrents = new double[channels];
+		averages = new double[channels];
+		ring = new double[this.window * channels];
+
+		for (int i = 0; i < channels; i++) names[i] = "channel " + i;
+
+		if (logDecimation > 0)
+		{
+			voltageLog = new DoubleLogEntry(DataLogManager.getLog(), "PowerAnalytics/Voltage");
+			totalCurrentLog = new DoubleLogEntry(DataLogManager.getLog(), "PowerAnalytics/TotalCurrent");
+			averageLog = new DoubleArrayLogEntry(DataLogManager.getLog(), "PowerAnalytics/AverageCurrent");
+			ampHourLog = new DoubleArrayLogEntry(DataLogManager.getLog(), "PowerAnalytics/AmpHours");
+			wattHourLog = new DoubleArrayLogEntry(DataLogManager.getLog(), "PowerAnalytics/WattHours");
+		}
+		else
+		{
+			voltageLog = totalCurrentLog = null;
+			averageLog = ampHourLog = wattHourLog = null;
+		}
+
+		reset();
+	}
+
+	/**
+	 * Set the name of a channel, such as the mechanism it powers. Used in the summary.
+	 * @param channel Channel number.
+	 * @param name Channel name.
+	 * @return This PowerAnalytics object.
+	 */
+	public synchronized PowerAnalytics withChannelName(int channel, String name)
+	{
+		names[channel] = name;
+
+		return this;
+	}
+
+	/**
+	 * Clear all totals, peaks and averages. Call at the start of a match.
+	 */
+	public synchronized void reset()
+	{
+		for (int i = 0; i < channels; i++)
+			ampHours[i] = wattHours[i] = peaks[i] = sums[i] = lastCurrents[i] = averages[i] = 0;
+
+		for (int i = 0; i < ring.length; i++) ring[i] = 0;
+
+		ringIndex = ringCount = sampleCount = 0;
+		startTime = Double.NaN;
+		totalAmpHours = totalWattHours = peakTotalCurrent = 0;
+		minVoltage = Double.MAX_VALUE;
+	}
+
+	/**
+	 * Add a sample. Called by MonitorPDP each sample cycle.
+	 * @param snapshot The sample.
+	 */
+	public synchronized void update(PowerSnapshot snapshot)
+	{
+		int		n = Math.min(channels, snapshot.getNumChannels());
+		double	time = snapshot.getTimeStamp(), voltage = snapshot.getVoltage();
+		double	totalCurrent = snapshot.getTotalCurrent();
+
+		// Integrate over the time since the last sample using the mean of the
+		// two samples (trapezoid rule). The first sample only sets the start.
+		if (Double.isNaN(startTime))
+			startTime = time;
+		else if (time > lastTime)
+		{
+			double hours = (time - lastTime) / 3600;
+			double meanVoltage = (voltage + lastVoltage) / 2;
+			double meanCurrent = (totalCurrent + lastTotalCurrent) / 2;
+
+			totalAmpHours += meanCurrent * hours;
+			totalWattHours += meanCurrent * meanVoltage * hours;
+
+			for (int i = 0; i < n; i++)
+			{
+				meanCurrent = (snapshot.getCurrent(i) + lastCurrents[i]) / 2;
+
+				ampHours[i] += meanCurrent * hours;
+				wattHours[i] += meanCurrent * meanVoltage * hours;
+			}
+		}
+
+		// Rolling average, replace the oldest sample in the ring with this one.
+		int slot = ringIndex * channels;
+
+		for (int i = 0; i < n; i++)
+		{
+			double current = snapshot.getCurrent(i);
+
+			sums[i] += current - ring[slot + i];
+			ring[slot + i] = current;
+			lastCurrents[i] = current;
+
+			if (current > peaks[i]) peaks[i] = current;
+		}
+
+		ringIndex = (ringIndex + 1) % window;
+
+		if (ringCount < window) ringCount++;
+
+		for (int i = 0; i < channels; i++) averages[i] = sums[i] / ringCount;
+
+		if (voltage < minVoltage) minVoltage = voltage;
+		if (totalCurrent > peakTotalCurrent) peakTotalCurrent = totalCurrent;
+
+		lastTime = time;
+		lastVoltage = voltage;
+		lastTotalCurrent = totalCurrent;
+
+		if (logDecimation > 0 && ++sampleCount % logDecimation == 0)
+		{
+			voltageLog.append(voltage);
+			totalCurrentLog.append(totalCurrent);
+			averageLog.append(averages);
+			ampHourLog.append(ampHours);
+			wattHourLog.append(wattHours);
+		}
+	}
+
+	/**
+	 * Returns the amp-hours used by a channel since reset.
+	 * @param channel Channel number.
+	 * @return Amp-hours.
+	 */
+	public synchronized double getAmpHours(int channel)
+	{
+		return ampHours[channel];
+	}
+
+	/**
+	 * Returns the watt-hours used by a channel since reset.
+	 * @param channel Channel number.
+	 * @return Watt-hours.
+	 */
+	public synchronized double getWattHours(int channel)
+	{
+		return wattHours[channel];
+	}
+
+	/**
+	 * Returns the peak current of a channel since reset.
+	 * @param channel Channel number.
+	 * @return Current in amps.
+	 */
+	public synchronized double getPeakCurrent(int channel)
+	{
+		return peaks[channel];
+	}
+
+	/**
+	 * Returns the average current of a channel over the rolling window.
+	 * @param channel Channel number.
+	 * @return Current in amps.
+	 */
+	public synchronized double getAverageCurrent(int channel)
+	{
+		return averages[channel];
+	}
+
+	/**
+	 * Returns the amp-hours drawn from the battery since reset.
+	 * @return Amp-hours.
+	 */
+	public synchronized double getTotalAmpHours()
+	{
+		return totalAmpHours;
+	}
+
+	/**
+	 * Returns the watt-hours drawn from the battery since reset.
+	 * @return Watt-hours.
+	 */
+	public synchronized double getTotalWattHours()
+	{
+		return totalWattHours;
+	}
+
+	/**
+	 * Returns the lowest battery voltage since reset.
+	 * @return Voltage, zero if no samples.
+	 */
+	public synchronized double getMinVoltage()
+	{
+		return minVoltage == Double.MAX_VALUE ? 0 : minVoltage;
+	}
+
+	/**
+	 * Returns the highest total current since reset.
+	 * @return Current in amps.
+	 */
+	public synchronized double getPeakTotalCurrent()
+	{
+		return peakTotalCurrent;
+	}
+
+	/**
+	 * Returns a summary of power use since reset. The first line has the battery
+	 * totals, followed by a line for each channel that used power, largest
+	 * amp-hours first.
+	 * @return Summary lines.
+	 */
+	public synchronized List<String> getSummary()
+	{
+		List<String>	lines = new ArrayList<String>();
+		List<Integer>	used = new ArrayList<Integer>();
+
+		lines.add(String.format("power: %.0fs %.3fAh %.1fWh min %.2fv peak %.1fA",
+								Double.isNaN(startTime) ? 0 : lastTime - startTime, totalAmpHours,
+								totalWattHours, getMinVoltage(), peakTotalCurrent));
+
+		for (int i = 0; i < channels; i++) if (ampHours[i] > 0) used.add(i);
+
+		used.sort((a, b) -> Double.compare(ampHours[b], ampHours[a]));
+
+		for (int i : used)
+			lines.add(String.format("  %-16s %.3fAh %6.1fWh %5.1f%% peak %5.1fA avg %5.1fA", names[i], ampHours[i],
+									wattHours[i], totalAmpHours > 0 ? ampHours[i] / totalAmpHours * 100 : 0,
+									peaks[i], averages[i]));
+
+		return lines;
+	}
+
+	/**
+	 * Log the summary of power use since reset. Call at the end of a match.
+	 */
+	public void logSummary()
+	{
+		for (String line : getSummary()) Util.consoleLog("%s", line);
+	}
+}
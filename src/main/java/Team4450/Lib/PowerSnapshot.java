@@ -0,0 +1,95 @@
+package Team4450.Lib;
+
+import edu.wpi.first.wpilibj.PowerDistribution;
+
+/**
+ * The state of a Power Distribution Panel/Hub read at one time: input voltage,
+ * total current and the current of every channel. Channel currents are read with
+ * one bulk call (getAllCurrents()) instead of a HAL call per channel. Snapshots
+ * do not change after they are read so they can be shared between threads.
+ * <p>
+ * MonitorPDP reads a snapshot each sample cycle and makes the latest one available
+ * with getSnapshot(), so robot code can use it instead of querying the PDP again.
+ */
+public final class PowerSnapshot
+{
+	private final double	timeStamp, voltage, totalCurrent;
+	private final double[]	currents;
+
+	/** An empty snapshot, no channels, all values zero. */
+	public static final PowerSnapshot	EMPTY = new PowerSnapshot(0, 0, 0, new double[0]);
+
+	private PowerSnapshot(double timeStamp, double voltage, double totalCurrent, double[] currents)
+	{
+		this.timeStamp = timeStamp;
+		this.voltage = voltage;
+		this.totalCurrent = totalCurrent;
+		this.currents = currents;
+	}
+
+	/**
+	 * Read a snapshot of a PDP/PDH. Makes three HAL calls: voltage, total current
+	 * and all channel currents.
+	 * @param pdp The power distribution module to read.
+	 * @return The snapshot.
+	 */
+	public static PowerSnapshot read(PowerDistribution pdp)
+	{
+		return new PowerSnapshot(Util.timeStamp(), pdp.getVoltage(), pdp.getTotalCurrent(), pdp.getAllCurrents());
+	}
+
+	/**
+	 * Returns the time the snapshot was read.
+	 * @return FPGA time stamp in seconds.
+	 */
+	public double getTimeStamp()
+	{
+		return timeStamp;
+	}
+
+	/**
+	 * Returns the input (battery) voltage.
+	 * @return Voltage in volts.
+	 */
+	public double getVoltage()
+	{
+		return voltage;
+	}
+
+	/**
+	 * Returns the total current of all channels.
+	 * @return Current in amps.
+	 */
+	public double getTotalCurrent()
+	{
+		return totalCurrent;
+	}
+
+	/**
+	 * Returns the number of channels in the snapshot.
+	 * @return Channel count, 16 for PDP, 24 for PDH.
+	 */
+	public int getNumChannels()
+	{
+		return currents.length;
+	}
+
+	/**
+	 * Returns the current of one channel.
+	 * @param channel Channel number.
+	 * @return Current in amps.
+	 */
+	public double getCurrent(int channel)
+	{
+		return currents[channel];
+	}
+
+	/**
+	 * Returns the currents of all channels.
+	 * @return Copy of the channel currents in amps, indexed by channel.
+	 */
+	public double[] getCurrents()
+	{
+		return currents.clone();
+	}
+}
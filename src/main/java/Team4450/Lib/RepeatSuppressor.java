@@ -0,0 +1,329 @@
+package Team4450.Lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Filter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Collapses repeats of the same message within a time window. The first
+ * occurrence of a message is let through and starts a window. Repeats inside
+ * the window are counted and dropped. The first occurrence after the window
+ * ends is let through with the count of the repeats that were dropped, and
+ * starts a new window. Counts of messages that stopped repeating can be collected
+ * with expire() once their window ends. Used to keep latched faults that are
+ * reported every loop from flooding the log file and the DS console.
+ */
+public class RepeatSuppressor
+{
+	private long			windowNanos;
+	private final int		maxKeys;
+	private final Map<Object, Window>	windows;
+
+	// Tracking for one message.
+	private static final class Window
+	{
+		long	start;
+		int		repeats;
+		Object	sample;
+	}
+
+	/**
+	 * Create a suppressor.
+	 * @param windowSeconds Length of the suppression window in seconds. Zero turns
+	 * suppression off.
+	 * @param maxKeys Maximum number of different messages tracked. When exceeded the
+	 * least recently seen message is forgotten.
+	 */
+	public RepeatSuppressor(double windowSeconds, int maxKeys)
+	{
+		this.maxKeys = maxKeys;
+
+		windows = new LinkedHashMap<Object, Window>(16, .75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Window> eldest)
+			{
+				return size() > RepeatSuppressor.this.maxKeys;
+			}
+		};
+
+		setWindow(windowSeconds);
+	}
+
+	/**
+	 * Set the length of the suppression window.
+	 * @param seconds Window length in seconds. Zero turns suppression off.
+	 */
+	public synchronized void setWindow(double seconds)
+	{
+		windowNanos = (long) (seconds * 1.0e9);
+
+		if (windowNanos <= 0) windows.clear();
+	}
+
+	/**
+	 * Returns the length of the suppression window.
+	 * @return Window length in seconds.
+	 */
+	public synchronized double getWindow()
+	{
+		return windowNanos / 1.0e9;
+	}
+
+	/**
+	 * Check if a message should be let through.
+	 * @param key Identifies the message.
+	 * @return -1 if the message should be dropped, otherwise the number of repeats
+	 * that were dropped since the message was last let through.
+	 */
+	public int check(Object key)
+	{
+		return check(key, null);
+	}
+
+	/**
+	 * Check if a message should be let through.
+	 * @param key Identifies the message.
+	 * @param sample Kept when the message is dropped, returned by expire().
+	 * @return -1 if the message should be dropped, otherwise the number of repeats
+	 * that were dropped since the message was last let through.
+	 */
+	public synchronized int check(Object key, Object sample)
+	{
+		if (windowNanos <= 0) return 0;
+
+		long	now = System.nanoTime();
+		Window	window = windows.get(key);
+
+		if (window == null)
+		{
+			window = new Window();
+			window.start = now;
+			windows.put(key, window);
+
+			return 0;
+		}
+
+		if (now - window.start < windowNanos)
+		{
+			window.repeats++;
+			window.sample = sample;
+
+			return -1;
+		}
+
+		int repeats = window.repeats;
+
+		window.repeats = 0;
+		window.sample = null;
+		window.start = now;
+
+		return repeats;
+	}
+
+	/**
+	 * Collect the repeat counts of messages whose window has ended without the
+	 * message being let through again. Each count is returned once, then the
+	 * message is forgotten. Call periodically so counts of messages that stopped
+	 * repeating are not lost. The action is called after the suppressor is unlocked,
+	 * so it may log.
+	 * @param action Called with the last dropped sample of each message and its
+	 * repeat count.
+	 */
+	public void expire(BiConsumer<Object, Integer> action)
+	{
+		List<Window> expired = new ArrayList<Window>();
+
+		synchronized (this)
+		{
+			long now = System.nanoTime();
+
+			for (Iterator<Window> it = windows.values().iterator(); it.hasNext(); )
+			{
+				Window window = it.next();
+
+				if (now - window.start < windowNanos) continue;
+
+				if (window.repeats > 0) expired.add(window);
+
+				it.remove();
+			}
+		}
+
+		for (Window window : expired) action.accept(window.sample, window.repeats);
+	}
+
+	/**
+	 * Forget all tracked messages.
+	 */
+	public synchronized void reset()
+	{
+		windows.clear();
+	}
+
+	/**
+	 * Log filter that collapses repeats of the same message: the same call site,
+	 * format string and argument values at the same level. Records are compared by
+	 * their raw arguments, they are not formatted to check them. When a message is
+	 * let through after repeats were dropped, a record giving the repeat count is
+	 * logged just ahead of it. When a window ends with repeats dropped and no new
+	 * occurrence, the count record is logged from the filter's own thread.
+	 */
+	public static class LogFilter implements Filter
+	{
+		private final RepeatSuppressor				suppressor;
+		private final Logger						logger;
+		private final ScheduledThreadPoolExecutor	executor;
+
+		// Identifies a message without formatting it. Primitive arguments are held
+		// in the number fields, object arguments (or text) in values.
+		private static final class Key
+		{
+			final Object	site;
+			final String	template;
+			final Level		level;
+			final long		longValue;
+			final double	doubleValue, doubleValue2;
+			final Object	values;
+
+			Key(Object site, String template, Level level, long longValue, double doubleValue, double doubleValue2,
+				Object values)
+			{
+				this.site = site;
+				this.template = template;
+				this.level = level;
+				this.longValue = longValue;
+				this.doubleValue = doubleValue;
+				this.doubleValue2 = doubleValue2;
+				this.values = values;
+			}
+
+			@Override
+			public boolean equals(Object o)
+			{
+				if (!(o instanceof Key)) return false;
+
+				Key key = (Key) o;
+
+				return Objects.equals(site, key.site) && Objects.equals(template, key.template) && level == key.level &&
+					   longValue == key.longValue && Double.compare(doubleValue, key.doubleValue) == 0 &&
+					   Double.compare(doubleValue2, key.doubleValue2) == 0 && Objects.deepEquals(values, key.values);
+			}
+
+			@Override
+			public int hashCode()
+			{
+				int hash = (Objects.hashCode(site) * 31 + Objects.hashCode(template)) * 31 + level.hashCode();
+
+				hash = hash * 31 + Long.hashCode(longValue);
+				hash = hash * 31 + Double.hashCode(doubleValue);
+				hash = hash * 31 + Double.hashCode(doubleValue2);
+
+				return hash * 31 + (values instanceof Object[] ? Arrays.hashCode((Object[]) values) : Objects.hashCode(values));
+			}
+		}
+
+		/**
+		 * Create a filter.
+		 * @param logger The logger the filter will be set on. Repeat count records
+		 * are logged to it.
+		 * @param windowSeconds Length of the suppression window in seconds.
+		 */
+		public LogFilter(Logger logger, double windowSeconds)
+		{
+			this.logger = logger;
+
+			suppressor = new RepeatSuppressor(windowSeconds, 256);
+
+			executor = new ScheduledThreadPoolExecutor(1, r ->
+			{
+				Thread thread = new Thread(r, "RepeatSuppressor");
+
+				thread.setDaemon(true);
+
+				return thread;
+			});
+
+			long period = Math.max(100, (long) (windowSeconds * 1000));
+
+			executor.scheduleWithFixedDelay(() -> suppressor.expire((sample, repeats) -> logRepeats((LogRecord) sample, repeats)),
+											period, period, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Returns the suppressor used by this filter.
+		 * @return The suppressor.
+		 */
+		public RepeatSuppressor getSuppressor()
+		{
+			return suppressor;
+		}
+
+		@Override
+		public boolean isLoggable(LogRecord record)
+		{
+			Key key;
+
+			if (record instanceof DeferredLogRecord)
+			{
+				DeferredLogRecord deferred = (DeferredLogRecord) record;
+
+				if (deferred.getCallSite() == null && deferred.getTemplate() == null) return true;
+
+				Object values;
+
+				// A supplied message is its own value. A record with mutable arguments
+				// was formatted when it was created, compare that text.
+				if (deferred.getKind() == DeferredLogRecord.SUPPLIER || deferred.isFormatted())
+					values = deferred.getBody();
+				else
+					values = deferred.getObjects();
+
+				key = new Key(deferred.getCallSite(), deferred.getTemplate(), record.getLevel(), deferred.getLongValue(),
+							  deferred.getDoubleValue(), deferred.getDoubleValue2(), values);
+			}
+			else
+			{
+				// getMessage() of a plain record is the unformatted message.
+				if (record.getMessage() == null) return true;
+
+				key = new Key(record.getLoggerName(), record.getMessage(), record.getLevel(), 0, 0, 0,
+							  record.getParameters());
+			}
+
+			// The last dropped record is kept for the repeat count record, it is only
+			// formatted if its window ends with no new occurrence.
+			int repeats = suppressor.check(key, record);
+
+			if (repeats < 0) return false;
+
+			// Logged here so it is published ahead of this record, which handlers only
+			// get after the filter returns. The suppressor is not locked at this point.
+			if (repeats > 0) logRepeats(record, repeats);
+
+			return true;
+		}
+
+		private void logRepeats(LogRecord sample, int repeats)
+		{
+			String message = sample.getMessage();
+
+			if (message.endsWith("\r")) message = message.substring(0, message.length() - 1);
+
+			logger.log(sample.getLevel(), String.format("previous message repeated %d times: %s\r", repeats, message));
+		}
+	}
+}
@@ -170,6 +170,8 @@ public class SynchronousPID implements Sendable, AutoCloseable
      */
     public double calculate(double input, double dt) 
     {
+        JfrEvents.PIDCalculation event = JfrEvents.ENABLED ? JfrEvents.PIDCalculation.start() : null;
+        
         if (dt < 1E-6) dt = 1E-6;
         
         m_last_input = input;
@@ -207,6 +209,8 @@ public class SynchronousPID implements Sendable, AutoCloseable
     	
         //Util.consoleLog("input=%.3f  dt=%.6f  output=%.3f", input, dt, m_output);
     	
+        if (event != null) event.finish("SynchronousPID", m_setpoint, input, m_error, m_output);
+        
         return m_output;
     }
 
@@ -10,23 +10,23 @@ import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.Properties;
-import java.util.Set;
-import java.util.TimeZone;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
-import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 //import java.util.logging.SimpleFormatter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.logging.Formatter;
-import java.util.logging.LogRecord;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 import edu.wpi.first.wpilibj.DataLogManager;
 import edu.wpi.first.wpilibj.DriverStation;
@@ -61,6 +61,15 @@ public class Util
 	
 	private static String		packageStripMarker = "4450.";
 	
+	private static volatile boolean	captureLocation = true;
+	
+	// Lowest level value any log handler will publish. Cached so level checks
+	// don't have to look at the handlers.
+	private static volatile int		publishThreshold = Integer.MIN_VALUE;
+	
+	// Collapses repeats of the same error reported to the DS by reportError().
+	private static final RepeatSuppressor	errorSuppressor = new RepeatSuppressor(10, 64);
+	
 	// Private constructor means this class cannot be instantiated. All access is static.
 	
 	private Util()
@@ -95,6 +104,8 @@ public class Util
 		is.close();
 		
 		props.list(logPrintStream);
+		
+		LogLevels.load(props);
 
 		return props;
 	}
@@ -134,8 +145,16 @@ public class Util
 	 */
 	public static class CustomLogger 
 	{
-        static private FileHandler 		fileTxt;
+        static private AsyncFileHandler	fileTxt;
 		static private DataLogHandler   wpiLog;
+		static private int				fileRingCapacity;
+		static private AsyncFileHandler.OverflowPolicy	fileOverflowPolicy;
+		static private int				fileBatchBufferSize;
+		static private double			fileBatchFlushInterval;
+		static private boolean			structuredDataLog;
+		static private double			repeatWindow;
+		static private int				flightRecorderCapacity;
+		static private Level			flightRecorderDiskLevel;
         //static private SimpleFormatter	formatterTxt;
         static private LogFormatter		logFormatter;
         
@@ -152,6 +171,8 @@ public class Util
             Logger logger = Logger.getGlobal();
                    
             logger.setLevel(Level.ALL);
+            
+            if (repeatWindow > 0) logger.setFilter(new RepeatSuppressor.LogFilter(logger, repeatWindow));
 
             // Note: console in this discussion is the RioLog.
             // Our logging goes to a disk file and the console. By default it
@@ -208,17 +229,38 @@ public class Util
             if (new File(path + "Logging.txt.99").exists() == true)
             	new File(path + "Logging.txt.99").delete();
 
-            fileTxt = new AsyncFileHandler(path + "Logging.txt", 0, 99);
+            if (fileRingCapacity > 0)
+            	fileTxt = new AsyncFileHandler(path + "Logging.txt", 0, 99, fileRingCapacity, fileOverflowPolicy);
+            else
+            	fileTxt = new AsyncFileHandler(path + "Logging.txt", 0, 99);
+            
+            if (fileBatchBufferSize > 0) fileTxt.withBatchedWrites(fileBatchBufferSize, fileBatchFlushInterval);
             fileTxt.setFormatter(logFormatter);
             
 			logger.addHandler(fileTxt);
 
 			// setup a DataLogHandler to log console messages to WpiLog on
 			// the RoboRio USB drive for log replay in AdvantageScope
-			wpiLog = new DataLogHandler();
+			wpiLog = new DataLogHandler("UtilConsoleLog", structuredDataLog);
 			wpiLog.setFormatter(logFormatter);
 			logger.addHandler(wpiLog);
 
+			// Records below the disk level are only kept in the flight recorder
+			// memory buffer until a dump is requested.
+			if (flightRecorderCapacity > 0)
+			{
+				fileTxt.setLevel(flightRecorderDiskLevel);
+				wpiLog.setLevel(flightRecorderDiskLevel);
+				
+				FlightRecorder.INSTANCE = new FlightRecorder(flightRecorderCapacity, path + "FlightRecorder.txt");
+				FlightRecorder.INSTANCE.setFormatter(logFormatter);
+				logger.addHandler(FlightRecorder.INSTANCE);
+			}
+
+			registerMetrics();
+
+			updateLogThreshold();
+
 			// start the WPILib DataLogManager to begin recording networktables
 			// and joystick values
 			DataLogManager.start();
@@ -254,6 +296,7 @@ public class Util
         static public void setup(String stripMarker) throws IOException
         {
         	packageStripMarker = stripMarker;
+        	CallSite.invalidate();
         	
         	setup();
         }
@@ -269,98 +312,241 @@ public class Util
         static public void setup(String stripMarker, boolean logConsole) throws IOException
         {
         	packageStripMarker = stripMarker;
+        	CallSite.invalidate();
         	
         	setup(logConsole);
         }
-    }
-    
-	// Our custom formatter for logging output.
-	
-	private static class LogFormatter extends Formatter 
-	{
-        SimpleDateFormat dateFormat = new SimpleDateFormat("hh:mm:ss:SSS");
         
-        public LogFormatter()
+        /**
+         * Configures the log file handler to queue log records on a lock-free ring buffer
+         * instead of a blocking queue. Calling threads are then never blocked or made to
+         * write to disk when logging is heavy. Call before setup().
+         * @param capacity Number of log records the ring buffer holds. Zero to use the
+         * default blocking queue.
+         * @param policy What to do with new log records when the ring buffer is full.
+         */
+        static public void setFileRingBuffer(int capacity, AsyncFileHandler.OverflowPolicy policy)
         {
-            dateFormat.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles"));
+        	fileRingCapacity = capacity;
+        	fileOverflowPolicy = policy;
         }
-
-        public String format(LogRecord rec) 
+        
+        /**
+         * Configures the log file handler to write log records to disk in batches
+         * instead of one at a time. Call before setup().
+         * @param bufferSize Size in bytes of the batch buffer. Zero to write records
+         * one at a time (default).
+         * @param flushInterval Maximum time in seconds a log record is held in the
+         * buffer before it is written to disk.
+         */
+        static public void setFileBatchedWrites(int bufferSize, double flushInterval)
         {
-            StringBuffer buf = new StringBuffer(1024);
-            
-            buf.append(String.format("<%d>", rec.getThreadID()));
-            buf.append(dateFormat.format(new Date(rec.getMillis())));
-            buf.append(": ");
-            buf.append(formatMessage(rec));
-            buf.append("\n");
+        	fileBatchBufferSize = bufferSize;
+        	fileBatchFlushInterval = flushInterval;
+        }
+        
+        /**
+         * Configures the DataLog handler to write log records as compact binary
+         * entries holding the raw message parameters instead of formatted text.
+         * See {@link DataLogHandler}. Call before setup().
+         * @param structured True to write structured records.
+         */
+        static public void setStructuredDataLog(boolean structured)
+        {
+        	structuredDataLog = structured;
+        }
         
-            return buf.toString();
+        /**
+         * Configures logging to collapse repeats of the same message (same call
+         * site, format string, argument values and level) within a time window into
+         * the first message and a count of the repeats. Messages are not formatted
+         * to check them. Applies to all handlers. Call before setup().
+         * @param windowSeconds Length of the window in seconds. Zero turns repeat
+         * suppression off (default).
+         */
+        static public void setRepeatSuppression(double windowSeconds)
+        {
+        	repeatWindow = windowSeconds;
         }
-	}
-	
+        
+        /**
+         * Configures logging to keep recent log records, at all levels, in a memory
+         * buffer. Only records at or above the disk level are written to the log file
+         * and DataLog. The buffer is written to FlightRecorder.txt, next to the log file,
+         * when an exception is logged, a brownout is detected or dumpFlightRecorder() is
+         * called. See {@link FlightRecorder}. Call before setup().
+         * @param capacity Size in bytes of the memory buffer. Zero turns the flight
+         * recorder off (default).
+         * @param diskLevel Lowest level written to the log file and DataLog.
+         */
+        static public void setFlightRecorder(int capacity, Level diskLevel)
+        {
+        	flightRecorderCapacity = capacity;
+        	flightRecorderDiskLevel = diskLevel;
+        }
+        
+        /**
+         * Returns the handler writing log records to the log file. Can be used
+         * to read the ring buffer counters.
+         * @return The file handler, null if setup() not called.
+         */
+        static public AsyncFileHandler getFileHandler()
+        {
+        	return fileTxt;
+        }
+
+        // Registers the log handlers' counters with the MetricsRegistry.
+        static private void registerMetrics()
+        {
+        	MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+
+        	metrics.gauge("Logging/Dropped", () -> fileTxt.getDroppedCount());
+        	metrics.gauge("Logging/Coalesced", () -> fileTxt.getCoalescedCount());
+        	metrics.gauge("Logging/HighWaterMark", () -> fileTxt.getHighWaterMark());
+
+        	if (FlightRecorder.INSTANCE != null)
+        		metrics.gauge("Logging/FlightRecorderCount", () -> FlightRecorder.INSTANCE.getCount());
+        }
+    }
+    
 	// An output stream that writes to our logging system. Writes data with flush on
-	// flush call or on a newline character in the stream.
+	// flush call or on a newline character in the stream. Bytes are decoded straight
+	// from the caller's array into a reusable character buffer, so a line is only
+	// copied once, into the String handed to the logger.
 	
 	private static class LoggingOutputStream extends OutputStream 
 	{
 	    private static final int	DEFAULT_BUFFER_LENGTH = 2048;
 	    private boolean 			hasBeenClosed = false;
-	    private byte[] 				buf;
-	    private int 				count, curBufLength;
+	    private final CharsetDecoder	decoder = Charset.defaultCharset().newDecoder()
+	    										.onMalformedInput(CodingErrorAction.REPLACE)
+	    										.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	    private CharBuffer			chars = CharBuffer.allocate(DEFAULT_BUFFER_LENGTH);
+	    
+	    // Holds the bytes of a multi-byte character split across writes.
+	    private final ByteBuffer	carry = ByteBuffer.allocate(16);
+	    
+	    // Wrapper for the last array written. PrintStream always writes from the
+	    // same internal array so this is almost always reused.
+	    private byte[]				wrappedArray;
+	    private ByteBuffer			wrapped;
+	    private final byte[]		single = new byte[1];
 
-	    public LoggingOutputStream()
+	    public void write(final int b) throws IOException 
 	    {
-	        curBufLength = DEFAULT_BUFFER_LENGTH;
-	        buf = new byte[curBufLength];
-	        count = 0;
+	        single[0] = (byte) b;
+	        
+	        write(single, 0, 1);
 	    }
 
-	    public void write(final int b) throws IOException 
+	    public void write(final byte[] b, final int off, final int len) throws IOException 
 	    {
 	        if (hasBeenClosed) {throw new IOException("The stream has been closed.");}
 	        
-	        // don't log nulls
-	        if (b == 0) return;
+	        Objects.checkFromIndexSize(off, len, b.length);
 	        
-	        // force flush on newline character, dropping the newline.
-	        if ((byte) b == '\n') 
-	        {
-	        	flush();
-	        	return;
-	        }
+	        int start = off, end = off + len;
 	        
-	        // would this be writing past the buffer?
-	        if (count == curBufLength) 
+	        for (int i = off; i < end; i++)
 	        {
-	            // grow the buffer
-	            final int newBufLength = curBufLength + DEFAULT_BUFFER_LENGTH;
-	            final byte[] newBuf = new byte[newBufLength];
-	            System.arraycopy(buf, 0, newBuf, 0, curBufLength);
-	            buf = newBuf;
-	            curBufLength = newBufLength;
+	        	byte c = b[i];
+	        	
+	        	// force flush on newline character, dropping the newline. Don't log nulls.
+	        	if (c == '\n' || c == 0)
+	        	{
+	        		decode(b, start, i - start);
+	        		
+	        		if (c == '\n') flush();
+	        		
+	        		start = i + 1;
+	        	}
 	        }
-
-	        buf[count] = (byte) b;
 	        
-	        count++;
+	        decode(b, start, end - start);
+	    }
+	    
+	    // Decode bytes onto the end of the current line.
+	    private void decode(byte[] b, int off, int len)
+	    {
+	    	if (len == 0) return;
+	    	
+	    	if (b != wrappedArray)
+	    	{
+	    		wrappedArray = b;
+	    		wrapped = ByteBuffer.wrap(b);
+	    	}
+	    	
+	    	ByteBuffer in = wrapped;
+	    	
+	    	in.limit(off + len).position(off);
+	    	
+	    	// Finish a character split across writes.
+	    	
+	    	while (carry.position() > 0 && in.hasRemaining())
+	    	{
+	    		carry.put(in.get());
+	    		carry.flip();
+	    		decodeInto(carry, false);
+	    		carry.compact();
+	    		
+	    		if (carry.position() == 0 || !carry.hasRemaining()) break;
+	    	}
+	    	
+	    	decodeInto(in, false);
+	    	
+	    	if (in.hasRemaining()) 
+	    	{
+	    		if (in.remaining() <= carry.remaining())
+	    			carry.put(in);
+	    		else
+	    			in.position(in.limit());
+	    	}
+	    }
+	    
+	    private void decodeInto(ByteBuffer in, boolean endOfInput)
+	    {
+	    	for (;;)
+	    	{
+	    		CoderResult result = decoder.decode(in, chars, endOfInput);
+	    		
+	    		if (!result.isOverflow()) break;
+	    		
+	    		growChars();
+	    	}
+	    }
+	    
+	    private void growChars()
+	    {
+	    	CharBuffer bigger = CharBuffer.allocate(chars.capacity() + DEFAULT_BUFFER_LENGTH);
+	    	
+	    	chars.flip();
+	    	bigger.put(chars);
+	    	chars = bigger;
 	    }
 
-	    //@SuppressWarnings("deprecation")
 		public void flush() 
 	    {
-	        if (count == 0) return;
+			// End of line ends the decoder input, any partial character left
+			// in carry is replaced.
+			carry.flip();
+			decodeInto(carry, true);
+			carry.clear();
+			
+			while (decoder.flush(chars).isOverflow()) growChars();
+			
+			decoder.reset();
+			
+	        if (chars.position() == 0) return;
 	        
-	        final byte[] bytes = new byte[count];
-
-	        System.arraycopy(buf, 0, bytes, 0, count);
+	        if (!chars.hasRemaining()) growChars();
 	        
-	        String str = new String(bytes);
+	        chars.put('\r');
+	        chars.flip();
 	        
 	        //LCD.consoleLogNoFormat(str);
-			logger.log(Level.INFO, String.format("%s\r", str));
+			logger.log(Level.INFO, chars.toString());
 	        
-	        count = 0;
+	        chars.clear();
 	    }
 
 	    public void close() 
@@ -379,39 +565,38 @@ public class Util
         return currentMethod(2);
     }
 
-    private static String currentMethod(Integer level)
+    private static String currentMethod(int level)
     {
-        StackTraceElement stackTrace[];
-    
-        stackTrace = new Throwable().getStackTrace();
-
-        // This scheme depends on having one level in the package name between
-        // Team4450 and the class name, ie: Team4450.lib.Util.method. New levels
-        // will require rewrite.
-        
-        try
-        {
-            String method = stackTrace[level].toString().split(packageStripMarker)[1];
-            
-            //int startPos = method.indexOf(".") + 1;
-            
-            //return method.substring(startPos);
-            return method;
-        }
-        catch (Throwable e)
-        {
-			return "method not found";
-        }
-
-//        try
-//        {
-//        	return stackTrace[level].toString().split("Robot9.")[1];
-//        }
-//        catch (Throwable e)
-//        {
-//        	return stackTrace[level].toString().split("Lib.")[1];
-//        }
+    	// Walk only as far up the stack as needed. Location text is cached per
+    	// call site so we only format it the first time a site is seen.
+    	
+    	CallSite site = CallSite.find(level);
+    	
+    	if (site == null) return "method not found";
+    	
+    	return site.getLocation(packageStripMarker);
 	}
+    
+    /**
+     * Turn capture of the program location on or off for the console log
+     * methods. Capturing the location is the most expensive part of logging,
+     * turning it off can help code that logs from time critical loops.
+     * Defaults to on.
+     * @param enabled True to include program location in log messages.
+     */
+    public static void setLocationCapture(boolean enabled)
+    {
+    	captureLocation = enabled;
+    }
+    
+    /**
+     * Returns the program location capture setting.
+     * @return True if console log messages include program location.
+     */
+    public static boolean isLocationCapture()
+    {
+    	return captureLocation;
+    }
 
 	// Works the same as LCD.consoleLog but automatically includes the program location from which
 	// trace was called.
@@ -423,8 +608,171 @@ public class Util
      */
 	public static void consoleLog(String message, Object... parms)
 	{
+		if (!enabled(Level.INFO)) return;
+		
 		// logs to the console as well as our log file on RR disk.
-		logger.log(Level.INFO, String.format("%s: %s\r", currentMethod(2), String.format(message, parms)));
+		if (captureLocation)
+			logger.log(Level.INFO, String.format("%s: %s\r", currentMethod(2), String.format(message, parms)));
+		else
+			logger.log(Level.INFO, String.format("%s\r", String.format(message, parms)));
+	}
+    
+	/**
+	 * Returns true if a log record at the specified level would be published
+	 * by the logger and at least one of its handlers. Cheap enough to call
+	 * from periodic code before doing work only needed for logging.
+	 * @param level The log level.
+	 * @return True if the level is loggable.
+	 */
+	public static boolean isLoggable(Level level)
+	{
+		return level.intValue() >= publishThreshold && level.intValue() >= LogLevels.getMinimumLevel()
+			   && logger.isLoggable(level);
+	}
+	
+	/**
+	 * Returns true if a log record at the specified level would be published
+	 * for the specified class, taking the class's level from {@link LogLevels}
+	 * into account.
+	 * @param type The class doing the logging.
+	 * @param level The log level.
+	 * @return True if the level is loggable.
+	 */
+	public static boolean isLoggable(Class<?> type, Level level)
+	{
+		return isLoggable(level) && LogLevels.isLoggable(type, level);
+	}
+	
+	// Returns true if the level is loggable for the class of the caller of a
+	// consoleLog method. Only looks up the calling class when package or class
+	// log levels are set.
+	private static boolean enabled(Level level)
+	{
+		if (!isLoggable(level)) return false;
+		
+		if (!LogLevels.hasOverrides()) return true;
+		
+		return LogLevels.isLoggable(CallSite.findClass(2), level);
+	}
+	
+	/**
+	 * Recompute the cached lowest level the log handlers will publish. Called by
+	 * CustomLogger.setup(). Call if you add or remove handlers or change handler
+	 * levels after setup.
+	 */
+	public static void updateLogThreshold()
+	{
+		int 	threshold = Level.OFF.intValue();
+		Logger	l = logger;
+		
+		while (l != null)
+		{
+			for (Handler handler : l.getHandlers())
+			{
+				Level level = handler.getLevel();
+				
+				if (level != Level.OFF) threshold = Math.min(threshold, level.intValue());
+			}
+			
+			if (!l.getUseParentHandlers()) break;
+			
+			l = l.getParent();
+		}
+		
+		publishThreshold = threshold;
+	}
+	
+	// Returns the call site of the caller of a consoleLog method or null
+	// if program location capture is off.
+	private static CallSite callSite()
+	{
+		return captureLocation ? CallSite.find(2) : null;
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting is done unless a handler publishes the message. Parameters other
+	 * than strings, boxed primitives and enums may change before a handler gets to
+	 * the message, so when there are any the message is formatted right away.
+	 * @param level The log level.
+	 * @param message Message with optional format specifiers for listed parameters.
+	 * @param parms Parameter list matching format specifiers.
+	 */
+	public static void consoleLog(Level level, String message, Object... parms)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, parms));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting or boxing is done unless a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Message with one format specifier for the value.
+	 * @param value Value to format.
+	 */
+	public static void consoleLog(Level level, String message, int value)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, value));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting or boxing is done unless a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Message with one format specifier for the value.
+	 * @param value Value to format.
+	 */
+	public static void consoleLog(Level level, String message, long value)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, value));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting or boxing is done unless a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Message with one format specifier for the value.
+	 * @param value Value to format.
+	 */
+	public static void consoleLog(Level level, String message, double value)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, value));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting or boxing is done unless a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Message with two format specifiers for the values.
+	 * @param value1 First value to format.
+	 * @param value2 Second value to format.
+	 */
+	public static void consoleLog(Level level, String message, double value1, double value2)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, value1, value2));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * No formatting or boxing is done unless a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Message with one format specifier for the value.
+	 * @param value Value to format.
+	 */
+	public static void consoleLog(Level level, String message, boolean value)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message, value));
+	}
+	
+	/**
+	 * Write message to console log at the specified level if that level is enabled.
+	 * The supplier is only called if a handler publishes the message.
+	 * @param level The log level.
+	 * @param message Supplies the message text.
+	 */
+	public static void consoleLog(Level level, Supplier<String> message)
+	{
+		if (enabled(level)) logger.log(DeferredLogRecord.of(level, callSite(), packageStripMarker, message));
 	}
     
 	/**
@@ -432,8 +780,13 @@ public class Util
 	 */
 	public static void consoleLog()
 	{
+		if (!enabled(Level.INFO)) return;
+		
 		// logs to the console as well as our log file on RR disk.
-		logger.log(Level.INFO, String.format("%s\r", currentMethod(2)));
+		if (captureLocation)
+			logger.log(Level.INFO, String.format("%s\r", currentMethod(2)));
+		else
+			logger.log(Level.INFO, "\r");
 	}
     
 	/**
@@ -447,6 +800,37 @@ public class Util
         logException(e);
     }
     
+	/**
+	 * Report an error message to the DS console window. Repeats of the same
+	 * message (same format string) within the error suppression window are
+	 * dropped. The next message reported after the window ends includes the
+	 * count of dropped repeats. No formatting is done for dropped messages.
+	 * @param format Message with optional format specifiers for listed parameters.
+	 * @param parms Parameter list matching format specifiers.
+	 */
+	public static void reportError(String format, Object... parms)
+	{
+		int repeats = errorSuppressor.check(format);
+		
+		if (repeats < 0) return;
+		
+		String message = String.format(format, parms);
+		
+		if (repeats > 0) message = String.format("%s (repeated %d times)", message, repeats);
+		
+		DriverStation.reportError(message, false);
+	}
+	
+	/**
+	 * Set the window used by reportError() to drop repeats of the same error.
+	 * @param seconds Window length in seconds, defaults to 10. Zero reports
+	 * every error.
+	 */
+	public static void setErrorSuppressionWindow(double seconds)
+	{
+		errorSuppressor.setWindow(seconds);
+	}
+	
 	/**
 	 * Write exception message to DS console window and exception stack trace to
 	 * log file.
@@ -457,6 +841,32 @@ public class Util
 		DriverStation.reportError(e.toString(), false);
 		
 		e.printStackTrace(Util.logPrintStream);
+		
+		dumpFlightRecorder(() -> "exception " + e);
+	}
+	
+	/**
+	 * Write the records held by the flight recorder to disk. Does nothing if the
+	 * flight recorder is not enabled. See CustomLogger.setFlightRecorder().
+	 * @param reason Reason for the dump, written to the dump file.
+	 */
+	public static void dumpFlightRecorder(String reason)
+	{
+		FlightRecorder recorder = FlightRecorder.INSTANCE;
+		
+		if (recorder != null) recorder.dump(reason);
+	}
+	
+	/**
+	 * Write the records held by the flight recorder to disk. Same as
+	 * dumpFlightRecorder(String) but the reason is only built if a dump is done.
+	 * @param reason Supplies the reason for the dump, written to the dump file.
+	 */
+	public static void dumpFlightRecorder(Supplier<String> reason)
+	{
+		FlightRecorder recorder = FlightRecorder.INSTANCE;
+		
+		if (recorder != null) recorder.dump(reason);
 	}
 
 	/** helper routine to get last received message for a given ID */
@@ -773,30 +1183,30 @@ public class Util
 	}
 	
 	/**
-	 * Print a list of all threads in the runtime environment with thread state
-	 * and stack trace if available.
+	 * Print a list of all threads in the runtime environment with thread state,
+	 * CPU time, CPU use, allocation rate and wakeups, and the stack trace of each
+	 * thread. Uses {@link MonitorThreads}, rates are since its last sample (since
+	 * the previous call if the monitor is not running).
 	 * @param out PrintStream to receive the list.
 	 */
 	public static void printThreadList(PrintStream out) 
 	{
-		// Get all threads in Java.
-		Set<Thread> threads = Thread.getAllStackTraces().keySet();
-
-		for (Thread thread : threads) 
-		{
-			// Print the thread name and current state of thread.
-			out.println("Thread Name:" + thread.getName());
-			out.println("Thread State:" + thread.getState());
-
-			// Get the stack trace for the thread and print it.
-			StackTraceElement[] stackTraceElements = thread.getStackTrace();
-			
-			for (StackTraceElement stackTraceElement : stackTraceElements) 
-			{
-				out.println("\t" + stackTraceElement);
-			}
-			
-			out.println("\n");
-		}
+		printThreadList(out, true);
+	}
+	
+	/**
+	 * Print a list of all threads in the runtime environment with thread state,
+	 * CPU time, CPU use, allocation rate and wakeups, and optionally the stack
+	 * trace of each thread.
+	 * @param out PrintStream to receive the list.
+	 * @param stacks True to print each thread's stack trace.
+	 */
+	public static void printThreadList(PrintStream out, boolean stacks) 
+	{
+		MonitorThreads monitor = MonitorThreads.getInstance();
+		
+		if (!monitor.isRunning()) monitor.sample();
+		
+		monitor.printThreadList(out, stacks);
 	}
 }
@@ -127,9 +127,14 @@ public class ValveDA implements Sendable
 		
 		new Thread(() -> {
 			try {
+				JfrEvents.ValveActuation event = JfrEvents.ENABLED ? JfrEvents.ValveActuation.start() : null;
+				
 				valveOpenSide.set(true);
 				Timer.delay(solenoidSlideTime);
 				valveOpenSide.set(false);
+				
+				if (event != null) event.finish(name, true);
+				
 				valveOpen = true;
 			} catch (Exception e) { }
 		  }).start();
@@ -160,9 +165,14 @@ public class ValveDA implements Sendable
 		
 		new Thread(() -> {
 			try {
+				JfrEvents.ValveActuation event = JfrEvents.ENABLED ? JfrEvents.ValveActuation.start() : null;
+				
 				valveCloseSide.set(true);
 				Timer.delay(solenoidSlideTime);
 				valveCloseSide.set(false);
+				
+				if (event != null) event.finish(name, false);
+				
 				valveOpen = false;
 			} catch (Exception e) { }
 		  }).start();		
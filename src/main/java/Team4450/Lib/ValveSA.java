@@ -97,6 +97,8 @@ public class ValveSA implements Sendable
 		valveOpenSide.set(true);
 		
 		valveOpen = true;
+		
+		if (JfrEvents.ENABLED) JfrEvents.ValveActuation.start().finish(name, true);
 	}
 
 	/**
@@ -109,6 +111,8 @@ public class ValveSA implements Sendable
 		valveOpenSide.set(false);
 		
 		valveOpen = false;
+		
+		if (JfrEvents.ENABLED) JfrEvents.ValveActuation.start().finish(name, false);
 	}
 	
 	/**
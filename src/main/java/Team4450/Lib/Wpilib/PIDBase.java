@@ -9,6 +9,7 @@ package Team4450.Lib.Wpilib;
 
 import java.util.concurrent.locks.ReentrantLock;
 
+import Team4450.Lib.JfrEvents;
 import Team4450.Lib.Util;
 
 import edu.wpi.first.hal.FRCNetComm.tResourceType;
@@ -222,6 +223,8 @@ public class PIDBase implements PIDInterface, PIDOutput, Sendable, AutoCloseable
 
     if (enabled) 
     {
+      JfrEvents.PIDCalculation event = JfrEvents.ENABLED ? JfrEvents.PIDCalculation.start() : null;
+      
       double input;
 
       // Storage for function inputs
@@ -321,6 +324,8 @@ public class PIDBase implements PIDInterface, PIDOutput, Sendable, AutoCloseable
       } finally {
         m_thisMutex.unlock();
       }
+
+      if (event != null) event.finish(getClass().getSimpleName(), m_setpoint, input, error, result);
     }
   }
 